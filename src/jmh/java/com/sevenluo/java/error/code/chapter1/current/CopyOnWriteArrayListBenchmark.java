@@ -0,0 +1,90 @@
+package com.sevenluo.java.error.code.chapter1.current;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 14:10
+ * @description: CopyOnWriteArrayListTest.testWrite/testRead 的 JMH 版本，每次调用在 threads 个线程上并发执行 operations 次读或写
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CopyOnWriteArrayListBenchmark {
+
+    @Param({"1", "4", "8", "16"})
+    private int threads;
+
+    @Param({"copyOnWriteArrayList", "synchronizedList", "chunkedAppendList"})
+    private String list;
+
+    private final int writeOperations = 10000;
+    private final int readOperations = 1000000;
+    private final int readListSize = 1000000;
+
+    private ForkJoinPool forkJoinPool;
+    private List<Integer> readList;
+    private List<Integer> writeList;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        forkJoinPool = new ForkJoinPool(threads);
+        readList = newList();
+        readList.addAll(IntStream.rangeClosed(1, readListSize).boxed().collect(Collectors.toList()));
+    }
+
+    /**
+     * 写测试每次调用都从空列表开始
+     */
+    @Setup(Level.Invocation)
+    public void resetWriteList() {
+        writeList = newList();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        forkJoinPool.shutdown();
+    }
+
+    @Benchmark
+    public void write(Blackhole blackhole) throws ExecutionException, InterruptedException {
+        List<Integer> target = writeList;
+        forkJoinPool.submit(() -> IntStream.rangeClosed(1, writeOperations).parallel()
+                .forEach(__ -> target.add(ThreadLocalRandom.current().nextInt(writeOperations)))).get();
+        blackhole.consume(target.size());
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) throws ExecutionException, InterruptedException {
+        List<Integer> target = readList;
+        long sum = forkJoinPool.submit(() -> IntStream.rangeClosed(1, readOperations).parallel()
+                .mapToLong(__ -> target.get(ThreadLocalRandom.current().nextInt(readListSize))).sum()).get();
+        blackhole.consume(sum);
+    }
+
+    private List<Integer> newList() {
+        switch (list) {
+            case "copyOnWriteArrayList":
+                return new CopyOnWriteArrayList<>();
+            case "chunkedAppendList":
+                return new ChunkedAppendList<>();
+            default:
+                return Collections.synchronizedList(new ArrayList<>());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.sevenluo.java.error.code.chapter1.current;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 14:25
+ * @description: CurrentHashMapTest.normaluse、gooduse 和 primitiveuse 的 JMH 版本，每次调用在 threads 个线程上并发计数 operations 次
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CurrentHashMapBenchmark {
+
+    @Param({"1", "4", "8", "16"})
+    private int threads;
+
+    @Param({"10"})
+    private int itemCount;
+
+    private final int operations = 1000000;
+
+    private ForkJoinPool forkJoinPool;
+    private String[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        forkJoinPool = new ForkJoinPool(threads);
+        keys = IntStream.range(0, itemCount).mapToObj(i -> "item" + i).toArray(String[]::new);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        forkJoinPool.shutdown();
+    }
+
+    @Benchmark
+    public void normaluse(Blackhole blackhole) throws ExecutionException, InterruptedException {
+        ConcurrentHashMap<String, Long> freqs = new ConcurrentHashMap<>(itemCount);
+        forkJoinPool.submit(() -> IntStream.rangeClosed(1, operations).parallel().forEach(i -> {
+            String key = keys[ThreadLocalRandom.current().nextInt(itemCount)];
+            synchronized (freqs) {
+                if (freqs.containsKey(key)) {
+                    freqs.put(key, freqs.get(key) + 1);
+                } else {
+                    freqs.put(key, 1L);
+                }
+            }
+        })).get();
+        blackhole.consume(freqs);
+    }
+
+    @Benchmark
+    public void gooduse(Blackhole blackhole) throws ExecutionException, InterruptedException {
+        ConcurrentHashMap<String, LongAdder> freqs = new ConcurrentHashMap<>(itemCount);
+        forkJoinPool.submit(() -> IntStream.rangeClosed(1, operations).parallel().forEach(i ->
+                freqs.computeIfAbsent(keys[ThreadLocalRandom.current().nextInt(itemCount)], k -> new LongAdder()).increment()
+        )).get();
+        blackhole.consume(freqs);
+    }
+
+    @Benchmark
+    public void primitiveuse(Blackhole blackhole) throws ExecutionException, InterruptedException {
+        LongCounterMap freqs = new LongCounterMap(itemCount, threads);
+        forkJoinPool.submit(() -> IntStream.rangeClosed(1, operations).parallel().forEach(i ->
+                freqs.increment(ThreadLocalRandom.current().nextInt(itemCount))
+        )).get();
+        blackhole.consume(freqs.snapshot());
+    }
+}
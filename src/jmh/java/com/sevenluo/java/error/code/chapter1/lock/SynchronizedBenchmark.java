@@ -0,0 +1,97 @@
+package com.sevenluo.java.error.code.chapter1.lock;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 14:40
+ * @description: SynchronizedTest 的 JMH 版本：锁粒度（/lock/wrong 和 /lock/right）以及 Data 计数器和各个 Counter 实现
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SynchronizedBenchmark {
+
+    @Param({"1", "4", "8", "16"})
+    private int threads;
+
+    /**
+     * 模拟 slow() 中不涉及共享资源的耗时操作，用 CPU 消耗代替 sleep 避免测到的是调度精度
+     */
+    @Param({"1000"})
+    private long slowTokens;
+
+    private final int lockOperations = 1000;
+    private final int counterOperations = 1000000;
+
+    private ForkJoinPool forkJoinPool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        forkJoinPool = new ForkJoinPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        forkJoinPool.shutdown();
+    }
+
+    @Benchmark
+    public void coarseLock(Blackhole blackhole) throws ExecutionException, InterruptedException {
+        List<Integer> data = new ArrayList<>();
+        Object lock = new Object();
+        forkJoinPool.submit(() -> IntStream.rangeClosed(1, lockOperations).parallel().forEach(i -> {
+            synchronized (lock) {
+                Blackhole.consumeCPU(slowTokens);
+                data.add(i);
+            }
+        })).get();
+        blackhole.consume(data.size());
+    }
+
+    @Benchmark
+    public void fineLock(Blackhole blackhole) throws ExecutionException, InterruptedException {
+        List<Integer> data = new ArrayList<>();
+        forkJoinPool.submit(() -> IntStream.rangeClosed(1, lockOperations).parallel().forEach(i -> {
+            Blackhole.consumeCPU(slowTokens);
+            synchronized (data) {
+                data.add(i);
+            }
+        })).get();
+        blackhole.consume(data.size());
+    }
+
+    @Benchmark
+    public void dataWrong(Blackhole blackhole) throws ExecutionException, InterruptedException {
+        Data.reset();
+        forkJoinPool.submit(() -> IntStream.rangeClosed(1, counterOperations).parallel().forEach(i -> new Data().wrong())).get();
+        blackhole.consume(Data.getCounter());
+    }
+
+    /**
+     * 各个 Counter 实现
+     */
+    @State(Scope.Benchmark)
+    public static class CounterState {
+        @Param({"atomic", "adder", "padded", "batched"})
+        private String impl;
+    }
+
+    @Benchmark
+    public void counter(CounterState state, Blackhole blackhole) throws ExecutionException, InterruptedException {
+        Counter counter = Counter.of(state.impl);
+        forkJoinPool.submit(() -> IntStream.rangeClosed(1, counterOperations).parallel().forEach(i -> counter.increment())).get();
+        blackhole.consume(counter.sum());
+    }
+}
@@ -0,0 +1,69 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.datasource;
+
+import com.sevenluo.java.error.code.common.LatencyHistogram;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/20 21:00
+ * @description: 记录 Hikari 连接池每次获取连接的等待时间和连接占用时间
+ * Hikari 只允许在连接池启动之前设置 MetricsTrackerFactory，所以在 DataSource 初始化之前通过 BeanPostProcessor 注册。
+ */
+@Component
+public class HikariPoolMetrics implements BeanPostProcessor {
+
+    private volatile Recording recording = new Recording();
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof HikariDataSource) {
+            ((HikariDataSource) bean).setMetricsTrackerFactory((poolName, poolStats) -> new IMetricsTracker() {
+                @Override
+                public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                    recording.acquire.record(elapsedAcquiredNanos);
+                }
+
+                @Override
+                public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                    recording.usage.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+                }
+
+                @Override
+                public void recordConnectionTimeout() {
+                    recording.timeouts.increment();
+                }
+            });
+        }
+        return bean;
+    }
+
+    /**
+     * 清空统计，压测每一轮开始前调用
+     */
+    public void reset() {
+        recording = new Recording();
+    }
+
+    public Map<String, Object> stats() {
+        Recording current = recording;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("acquireWait", current.acquire.snapshot());
+        stats.put("usage", current.usage.snapshot());
+        stats.put("timeouts", current.timeouts.sum());
+        return stats;
+    }
+
+    private static class Recording {
+        private final LatencyHistogram acquire = new LatencyHistogram();
+        private final LatencyHistogram usage = new LatencyHistogram();
+        private final LongAdder timeouts = new LongAdder();
+    }
+}
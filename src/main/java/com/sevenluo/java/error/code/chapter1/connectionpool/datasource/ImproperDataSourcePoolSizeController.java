@@ -1,20 +1,110 @@
 package com.sevenluo.java.error.code.chapter1.connectionpool.datasource;
 
+import com.sevenluo.java.error.code.common.LatencyHistogram;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
 @RestController
 @RequestMapping("improperdatasourcepoolsize")
 @Slf4j
 public class ImproperDataSourcePoolSizeController {
     @Autowired
     private UserService userService;
+    @Autowired
+    private RegistrationBatcher registrationBatcher;
+    @Autowired
+    private HikariPoolMetrics hikariPoolMetrics;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DataSource dataSource;
 
     @GetMapping("test")
     public Object test() {
         return userService.register();
     }
-}
\ No newline at end of file
+
+    @GetMapping("batched")
+    public Object batched() {
+        return userService.registerBatched();
+    }
+
+    /**
+     * 对比两种注册方式：callers 个线程持续注册 durationMillis，
+     * current 在事务里等待 500ms，batched 在事务外等待后批量插入；
+     * 每 10ms 采样一次 Hikari 等待连接的线程数，同时记录每次获取连接的等待时间
+     */
+    @GetMapping("loadtest")
+    public Map<String, Object> loadTest(@RequestParam(value = "callers", defaultValue = "50") int callers,
+                                        @RequestParam(value = "durationMillis", defaultValue = "5000") long durationMillis) throws Exception {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("current", run(callers, durationMillis, userService::register));
+        result.put("batched", run(callers, durationMillis, userService::registerBatched));
+        result.put("batcher", registrationBatcher.stats());
+        log.info("registration load test:{}", result);
+        return result;
+    }
+
+    private Map<String, Object> run(int callers, long durationMillis, Supplier<User> register) throws InterruptedException, SQLException {
+        HikariPoolMXBean pool = dataSource.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+        long usersBefore = userRepository.count();
+        hikariPoolMetrics.reset();
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder errors = new LongAdder();
+        CountDownLatch latch = new CountDownLatch(callers);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        for (int i = 0; i < callers; i++) {
+            new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        long begin = System.nanoTime();
+                        try {
+                            register.get();
+                            latency.record(System.nanoTime() - begin);
+                        } catch (Exception e) {
+                            errors.increment();
+                        }
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        long samples = 0;
+        long awaitingTotal = 0;
+        int awaitingMax = 0;
+        while (!latch.await(10, TimeUnit.MILLISECONDS)) {
+            int awaiting = pool.getThreadsAwaitingConnection();
+            samples++;
+            awaitingTotal += awaiting;
+            awaitingMax = Math.max(awaitingMax, awaiting);
+        }
+        long took = System.nanoTime() - start;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("registrations", latency.getCount());
+        stats.put("registrationsPerSecond", latency.getCount() * TimeUnit.SECONDS.toNanos(1) / took);
+        stats.put("usersInserted", userRepository.count() - usersBefore);
+        stats.put("errors", errors.sum());
+        stats.put("latency", latency.snapshot());
+        stats.put("threadsAwaitingConnectionAvg", samples == 0 ? 0 : (double) awaitingTotal / samples);
+        stats.put("threadsAwaitingConnectionMax", awaitingMax);
+        stats.put("pool", hikariPoolMetrics.stats());
+        return stats;
+    }
+}
@@ -0,0 +1,150 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.datasource;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/20 21:20
+ * @description: 把并发的注册请求合并成批量插入，一批只借一次连接、只提交一次事务
+ * 实现思路：
+ * 1. 调用方把已经准备好的 User 放进队列，拿到 CompletableFuture，等待期间不占用数据库连接；
+ * 2. 写入线程取出第一个 User 后再取走队列里已有的，不足 batch-size 时最多再等 max-delay-millis 凑批；
+ * 3. 一批在一个短事务里 saveAll，配合 hibernate.jdbc.batch_size 和 pooled 序列，一批 User 通常只需要一次取序列和一次批量 INSERT；
+ * 4. 事务失败时这一批的 future 全部以异常结束，由调用方决定是否重试。
+ */
+@Slf4j
+@Component
+public class RegistrationBatcher {
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<Registration> queue = new LinkedBlockingQueue<>();
+
+    @Value("${registration.batch.size:50}")
+    private int batchSize;
+
+    @Value("${registration.batch.max-delay-millis:5}")
+    private long maxDelayMillis;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder users = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile boolean closed;
+    private Thread writer;
+
+    public RegistrationBatcher(UserRepository userRepository, TransactionTemplate transactionTemplate) {
+        this.userRepository = userRepository;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @PostConstruct
+    public void start() {
+        writer = new Thread(this::writeLoop, "registration-batcher");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public CompletableFuture<User> submit(User user) {
+        if (closed) {
+            throw new IllegalStateException("registration batcher is closed");
+        }
+        Registration registration = new Registration(user);
+        queue.add(registration);
+        //入队之后才关闭的话写线程和 close() 的清理可能都已经结束，自己把注册请求取回来结束掉
+        if (closed && queue.remove(registration)) {
+            registration.future.completeExceptionally(new IllegalStateException("registration batcher is closed"));
+        }
+        return registration.future;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("users", users.sum());
+        stats.put("batches", batches.sum());
+        stats.put("avgBatchSize", batches.sum() == 0 ? 0 : (double) users.sum() / batches.sum());
+        stats.put("failures", failures.sum());
+        stats.put("queued", queue.size());
+        return stats;
+    }
+
+    /**
+     * 停止写入线程，队列中还没有写入的注册以异常结束
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        closed = true;
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+        Registration registration;
+        while ((registration = queue.poll()) != null) {
+            registration.future.completeExceptionally(new IllegalStateException("registration batcher is closed"));
+        }
+    }
+
+    private void writeLoop() {
+        List<Registration> batch = new ArrayList<>(batchSize);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - batch.size());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                long remaining;
+                while (batch.size() < batchSize && (remaining = deadline - System.nanoTime()) > 0) {
+                    Registration registration = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (registration == null) {
+                        break;
+                    }
+                    batch.add(registration);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                if (batch.isEmpty()) {
+                    continue;
+                }
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void flush(List<Registration> batch) {
+        batches.increment();
+        users.add(batch.size());
+        try {
+            List<User> saved = transactionTemplate.execute(status ->
+                    userRepository.saveAll(batch.stream().map(registration -> registration.user).collect(Collectors.toList())));
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(saved.get(i));
+            }
+        } catch (Exception e) {
+            failures.add(batch.size());
+            log.warn("failed to insert {} users", batch.size(), e);
+            batch.forEach(registration -> registration.future.completeExceptionally(e));
+        }
+    }
+
+    private static class Registration {
+        private final User user;
+        private final CompletableFuture<User> future = new CompletableFuture<>();
+
+        Registration(User user) {
+            this.user = user;
+        }
+    }
+}
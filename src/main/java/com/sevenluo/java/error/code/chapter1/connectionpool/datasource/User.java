@@ -5,14 +5,20 @@ import lombok.Data;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
 
-import static javax.persistence.GenerationType.AUTO;
+import static javax.persistence.GenerationType.SEQUENCE;
 
 @Entity
 @Data
 public class User {
+    /**
+     * AUTO 在每次插入前都要单独查询一次序列；pooled 序列一次取 50 个 id，批量插入时不需要额外的往返。
+     * 不能用 IDENTITY，否则 Hibernate 必须逐条插入拿回主键，JDBC 批量插入失效
+     */
     @Id
-    @GeneratedValue(strategy = AUTO)
+    @GeneratedValue(strategy = SEQUENCE, generator = "user_seq")
+    @SequenceGenerator(name = "user_seq", sequenceName = "user_seq", allocationSize = 50)
     private Long id;
     private String name;
-}
\ No newline at end of file
+}
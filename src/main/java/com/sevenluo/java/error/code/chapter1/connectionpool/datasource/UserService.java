@@ -10,18 +10,35 @@ import java.util.concurrent.TimeUnit;
 public class UserService {
     @Autowired
     private UserRepository userRepository;
+    @Autowired
+    private RegistrationBatcher registrationBatcher;
 
     @Transactional
     public User register() {
         User user = new User();
         user.setName("new-user-" + System.currentTimeMillis());
         userRepository.save(user);
+        slowWork();
+        return user;
+    }
+
+    /**
+     * 耗时的非数据库操作放在事务之外，插入交给 RegistrationBatcher 和其他请求一起批量执行，
+     * 整个请求只在批量插入的那一小段时间里共享一个数据库连接
+     */
+    public User registerBatched() {
+        User user = new User();
+        user.setName("new-user-" + System.currentTimeMillis());
+        slowWork();
+        return registrationBatcher.submit(user).join();
+    }
+
+    private void slowWork() {
         try {
             TimeUnit.MILLISECONDS.sleep(500);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        return user;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.httpclient;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 20:00
+ * @description: 异步 HttpClient 连接池配置，httpclient.async.max-per-route[host:port]=n 单独设置某个路由的最大连接数
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "httpclient.async")
+public class AsyncHttpClientProperties {
+
+    private int maxTotal = 200;
+    private int defaultMaxPerRoute = 50;
+    private Map<String, Integer> maxPerRoute = new LinkedHashMap<>();
+    /**
+     * IO 线程数，一个 IO 线程可以同时处理成百上千个连接
+     */
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+    private int connectTimeoutMillis = 1000;
+    private int socketTimeoutMillis = 5000;
+    /**
+     * 从连接池获取连接的最长等待时间
+     */
+    private int connectionRequestTimeoutMillis = 5000;
+}
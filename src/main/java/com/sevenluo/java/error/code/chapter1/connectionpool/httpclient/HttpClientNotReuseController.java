@@ -1,17 +1,24 @@
 package com.sevenluo.java.error.code.chapter1.connectionpool.httpclient;
 
+import com.sevenluo.java.error.code.common.LatencyHistogram;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 @RestController
@@ -23,7 +30,10 @@ public class HttpClientNotReuseController {
     private static CloseableHttpClient httpClient = null;
 
     static {
-        httpClient = HttpClients.custom().setMaxConnPerRoute(1).setMaxConnTotal(1).evictIdleConnections(60, TimeUnit.SECONDS).build();
+        InstrumentedConnectionManager connectionManager = new InstrumentedConnectionManager("right");
+        connectionManager.getDelegate().setMaxTotal(1);
+        connectionManager.getDelegate().setDefaultMaxPerRoute(1);
+        httpClient = HttpClients.custom().setConnectionManager(connectionManager).evictIdleConnections(60, TimeUnit.SECONDS).build();
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
@@ -42,7 +52,7 @@ public class HttpClientNotReuseController {
     @GetMapping("wrong1")
     public String wrong1() {
         CloseableHttpClient client = HttpClients.custom()
-                .setConnectionManager(new PoolingHttpClientConnectionManager())
+                .setConnectionManager(new InstrumentedConnectionManager("wrong1"))
                 .evictIdleConnections(60, TimeUnit.SECONDS).build();
         try (CloseableHttpResponse response = client.execute(new HttpGet("http://127.0.0.1:8080/httpclientnotreuse/test"))) {
             log.info("响应结果：{}", response.getEntity());
@@ -56,7 +66,7 @@ public class HttpClientNotReuseController {
     @GetMapping("wrong2")
     public String wrong2() {
         try (CloseableHttpClient client = HttpClients.custom()
-                .setConnectionManager(new PoolingHttpClientConnectionManager())
+                .setConnectionManager(new InstrumentedConnectionManager("wrong2"))
                 .evictIdleConnections(60, TimeUnit.SECONDS).build();
              CloseableHttpResponse response = client.execute(new HttpGet("http://127.0.0.1:8080/httpclientnotreuse/test"))) {
             return EntityUtils.toString(response.getEntity());
@@ -76,6 +86,91 @@ public class HttpClientNotReuseController {
         return null;
     }
 
+    @Autowired
+    private PooledAsyncHttpClient pooledAsyncHttpClient;
+
+    /**
+     * 非阻塞版本：请求交给共享的 HttpAsyncClient 后立即释放 Tomcat 线程，响应到达后再完成 CompletableFuture
+     * 吞吐量对比：java LoadTest 200 4000 httpclient
+     */
+    @GetMapping("async")
+    public CompletableFuture<String> async() {
+        return pooledAsyncHttpClient.get("http://127.0.0.1:8080/httpclientnotreuse/test");
+    }
+
+    /**
+     * 异步 HttpClient 连接池的 leased、available、pending 连接数
+     */
+    @GetMapping("async/stats")
+    public Map<String, Object> asyncStats() {
+        return pooledAsyncHttpClient.stats();
+    }
+
+    /**
+     * wrong1、wrong2、right 三种用法的连接管理器指标：存活的连接管理器和连接回收线程个数、等待连接和借出连接的耗时、连接复用率，
+     * 以及借出时间过长的连接，打开 pool/leasestacks 后还会带上借出时的调用栈
+     */
+    @GetMapping("pool/stats")
+    public Map<String, Object> poolStats() {
+        return InstrumentedConnectionManager.stats();
+    }
+
+    /**
+     * 排查连接泄露时临时打开借出调用栈的记录，平时关闭避免每次借连接都抓一次栈
+     */
+    @GetMapping("pool/leasestacks")
+    public boolean leaseStacks(@RequestParam("enabled") boolean enabled) {
+        InstrumentedConnectionManager.setCaptureLeaseStacks(enabled);
+        return InstrumentedConnectionManager.isCaptureLeaseStacks();
+    }
+
+    @Autowired
+    private HttpFanOut httpFanOut;
+
+    /**
+     * 并发调用 n 次 /test，最多同时 concurrency 个请求，整批不超过 deadlineMillis，结果按顺序返回
+     */
+    @GetMapping("fanout")
+    public CompletableFuture<HttpFanOut.BatchResult> fanOut(@RequestParam(value = "n", defaultValue = "10") int n,
+                                                            @RequestParam(value = "concurrency", defaultValue = "10") int concurrency,
+                                                            @RequestParam(value = "deadlineMillis", defaultValue = "1000") long deadlineMillis) {
+        return httpFanOut.getAll(Collections.nCopies(n, "http://127.0.0.1:8080/httpclientnotreuse/test"),
+                concurrency, deadlineMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 对进程内的 /test 替身（每个请求耗时 delayMillis）测量批量调用的延迟随 n 的变化，
+     * 每个 n 跑 rounds 批，和逐个同步调用 n 次的耗时对比
+     */
+    @GetMapping("fanout/benchmark")
+    public Map<String, Object> fanOutBenchmark(@RequestParam(value = "delayMillis", defaultValue = "10") long delayMillis,
+                                               @RequestParam(value = "concurrency", defaultValue = "20") int concurrency,
+                                               @RequestParam(value = "rounds", defaultValue = "20") int rounds) throws Exception {
+        Map<String, Object> result = new LinkedHashMap<>();
+        try (LocalStubServer server = new LocalStubServer(delayMillis, 200)) {
+            for (int n : new int[]{1, 2, 5, 10, 20, 50, 100}) {
+                List<String> uris = Collections.nCopies(n, server.url());
+                LatencyHistogram latency = new LatencyHistogram();
+                int failed = 0;
+                for (int round = 0; round < rounds; round++) {
+                    HttpFanOut.BatchResult batch = httpFanOut.getAll(uris, concurrency, 10, TimeUnit.SECONDS).get();
+                    latency.record((long) (batch.tookMs * 1e6));
+                    failed += batch.failed + batch.timedOut;
+                }
+                long start = System.nanoTime();
+                for (String uri : uris) {
+                    pooledAsyncHttpClient.get(uri).get();
+                }
+                Map<String, Object> stats = new LinkedHashMap<>(latency.snapshot());
+                stats.put("failed", failed);
+                stats.put("sequentialMs", (System.nanoTime() - start) / 1e6);
+                result.put("n=" + n, stats);
+            }
+        }
+        log.info("fan-out benchmark concurrency:{} delay:{}ms result:{}", concurrency, delayMillis, result);
+        return result;
+    }
+
     @GetMapping("/test")
     public String test() {
         return "OK";
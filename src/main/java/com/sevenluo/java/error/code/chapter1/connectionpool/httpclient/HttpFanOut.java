@@ -0,0 +1,175 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.httpclient;
+
+import jodd.util.ThreadFactoryBuilder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 22:00
+ * @description: 批量并发调用同一个下游，基于共享的 PooledAsyncHttpClient
+ * 1. 同时在途的请求不超过 concurrency 个，一个请求完成后在回调里发出下一个，整个过程不阻塞任何线程；
+ * 2. 整批请求有一个截止时间，到期时还没完成的请求被取消并标记为超时，已经完成的结果照常返回；
+ * 3. 结果按提交顺序返回，每个结果单独记录成功、失败或超时，调用方自己决定部分失败时怎么处理。
+ */
+@Component
+public class HttpFanOut {
+
+    private final PooledAsyncHttpClient client;
+    private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().withNameFormat("http-fanout-deadline-%d").withDaemon(true).get());
+
+    public HttpFanOut(PooledAsyncHttpClient client) {
+        this.client = client;
+    }
+
+    public CompletableFuture<BatchResult> getAll(List<String> uris, int concurrency, long deadline, TimeUnit unit) {
+        if (concurrency <= 0 || deadline <= 0) {
+            throw new IllegalArgumentException("concurrency and deadline must be positive");
+        }
+        Batch batch = new Batch(uris, unit.toNanos(deadline));
+        if (uris.isEmpty()) {
+            batch.finish();
+            return batch.done;
+        }
+        for (int i = 0; i < Math.min(concurrency, uris.size()); i++) {
+            batch.launchNext();
+        }
+        return batch.done;
+    }
+
+    @PreDestroy
+    public void close() {
+        deadlines.shutdownNow();
+    }
+
+    /**
+     * 单个请求的结果，error 为 null 表示成功
+     */
+    public static class Result {
+        public final int index;
+        public final String uri;
+        public final String body;
+        public final String error;
+        public final boolean timedOut;
+        public final double latencyMs;
+
+        Result(int index, String uri, String body, String error, boolean timedOut, long latencyNanos) {
+            this.index = index;
+            this.uri = uri;
+            this.body = body;
+            this.error = error;
+            this.timedOut = timedOut;
+            this.latencyMs = latencyNanos / 1e6;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    public static class BatchResult {
+        public final List<Result> results;
+        public final int succeeded;
+        public final int failed;
+        public final int timedOut;
+        public final double tookMs;
+
+        BatchResult(List<Result> results, long tookNanos) {
+            this.results = results;
+            this.succeeded = (int) results.stream().filter(Result::isSuccess).count();
+            this.timedOut = (int) results.stream().filter(result -> result.timedOut).count();
+            this.failed = results.size() - succeeded - timedOut;
+            this.tookMs = tookNanos / 1e6;
+        }
+    }
+
+    private class Batch {
+        private final List<String> uris;
+        private final long startNanos = System.nanoTime();
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final AtomicReferenceArray<Result> results;
+        private final AtomicReferenceArray<CompletableFuture<String>> inFlight;
+        private final CompletableFuture<BatchResult> done = new CompletableFuture<>();
+        private final ScheduledFuture<?> timeout;
+
+        Batch(List<String> uris, long deadlineNanos) {
+            this.uris = uris;
+            this.remaining = new AtomicInteger(uris.size());
+            this.results = new AtomicReferenceArray<>(uris.size());
+            this.inFlight = new AtomicReferenceArray<>(uris.size());
+            this.timeout = deadlines.schedule(this::expire, deadlineNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void launchNext() {
+            int index = next.getAndIncrement();
+            if (index >= uris.size() || done.isDone()) {
+                return;
+            }
+            long start = System.nanoTime();
+            CompletableFuture<String> request = client.get(uris.get(index));
+            inFlight.set(index, request);
+            request.whenComplete((body, ex) -> {
+                if (!(unwrap(ex) instanceof CancellationException)) {
+                    record(new Result(index, uris.get(index), body, ex == null ? null : String.valueOf(unwrap(ex)), false,
+                            System.nanoTime() - start));
+                }
+                launchNext();
+            });
+        }
+
+        /**
+         * 截止时间到了，没有结果的请求全部标记为超时，在途的请求取消
+         */
+        void expire() {
+            //先让 launchNext 不再发出新请求
+            next.set(uris.size());
+            for (int i = 0; i < uris.size(); i++) {
+                if (results.get(i) == null) {
+                    record(new Result(i, uris.get(i), null, String.valueOf(new TimeoutException("batch deadline exceeded")), true,
+                            System.nanoTime() - startNanos));
+                    CompletableFuture<String> request = inFlight.get(i);
+                    if (request != null) {
+                        request.cancel(false);
+                    }
+                }
+            }
+        }
+
+        void record(Result result) {
+            if (results.compareAndSet(result.index, null, result) && remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        void finish() {
+            //截止时间极短时 expire 可能在构造函数给 timeout 赋值之前就执行了
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            List<Result> ordered = new ArrayList<>(uris.size());
+            for (int i = 0; i < uris.size(); i++) {
+                ordered.add(results.get(i));
+            }
+            done.complete(new BatchResult(ordered, System.nanoTime() - startNanos));
+        }
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+}
@@ -0,0 +1,252 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.httpclient;
+
+import com.sevenluo.java.error.code.common.LatencyHistogram;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 21:00
+ * @description: 带监控的连接管理器，包装 PoolingHttpClientConnectionManager，让“每个请求 new 一个连接池”这类问题在指标上暴露出来
+ * 1. 统计等待连接的时间、连接被借出的时间，以及借到的是已经打开的 keep-alive 连接（复用）还是新连接；
+ * 2. 借出超过 longLeaseThreshold 还没归还的连接会被报告，归还时超时的连接打 warn 日志；
+ *    每次借出都 new Throwable 抓调用栈开销太大，只有打开 captureLeaseStacks（-Dhttpclient.captureLeaseStacks=true 或运行时开关）排查泄露时才记录借出时的调用栈；
+ * 3. 静态统计存活（没有 shutdown）的连接管理器个数和 HttpClient 的 "Connection evictor" 线程数，
+ *    wrong1 每个请求泄露一个连接管理器和一个回收线程，这两个数字会一直上涨；存活列表只弱引用连接管理器，统计本身不会让泄露的连接池无法回收；
+ * 4. 指标按 name 汇总，同名的连接管理器（比如 wrong2 每个请求创建的）共用一份指标。
+ */
+@Slf4j
+public class InstrumentedConnectionManager implements HttpClientConnectionManager {
+
+    private static final String EVICTOR_THREAD_PREFIX = "Connection evictor";
+    private static final int STACK_DEPTH = 12;
+
+    private static final Set<InstrumentedConnectionManager> LIVE_MANAGERS = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private static final Map<String, Metrics> METRICS = new ConcurrentHashMap<>();
+    private static volatile boolean captureLeaseStacks = Boolean.getBoolean("httpclient.captureLeaseStacks");
+
+    private final String name;
+    private final PoolingHttpClientConnectionManager delegate;
+    private final long longLeaseThresholdNanos;
+    private final Metrics metrics;
+    private final Map<HttpClientConnection, Lease> leases = new ConcurrentHashMap<>();
+
+    public InstrumentedConnectionManager(String name) {
+        this(name, new PoolingHttpClientConnectionManager(), 5, TimeUnit.SECONDS);
+    }
+
+    public InstrumentedConnectionManager(String name, PoolingHttpClientConnectionManager delegate, long longLeaseThreshold, TimeUnit unit) {
+        this.name = name;
+        this.delegate = delegate;
+        this.longLeaseThresholdNanos = unit.toNanos(longLeaseThreshold);
+        this.metrics = METRICS.computeIfAbsent(name, key -> new Metrics());
+        metrics.created.increment();
+        LIVE_MANAGERS.add(this);
+    }
+
+    /**
+     * 用来设置连接池大小等参数
+     */
+    public PoolingHttpClientConnectionManager getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        ConnectionRequest request = delegate.requestConnection(route, state);
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit unit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                long start = System.nanoTime();
+                HttpClientConnection connection;
+                try {
+                    connection = request.get(timeout, unit);
+                } catch (ConnectionPoolTimeoutException ex) {
+                    metrics.waitTimeouts.increment();
+                    throw ex;
+                } finally {
+                    metrics.waitTime.record(System.nanoTime() - start);
+                }
+                //池中取出的连接已经打开说明是复用的 keep-alive 连接，新连接要等 connect 之后才打开
+                if (connection.isOpen()) {
+                    metrics.reused.increment();
+                }
+                metrics.leases.increment();
+                leases.put(connection, new Lease(route, captureLeaseStacks ? new Throwable("connection acquired here") : null));
+                return connection;
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void releaseConnection(HttpClientConnection conn, Object newState, long validDuration, TimeUnit timeUnit) {
+        Lease lease = leases.remove(conn);
+        if (lease != null) {
+            long held = System.nanoTime() - lease.startNanos;
+            metrics.leaseTime.record(held);
+            if (held > longLeaseThresholdNanos) {
+                metrics.longLeases.increment();
+                if (lease.acquiredAt != null) {
+                    log.warn("connection manager {} connection to {} was leased for {}ms", name, lease.route,
+                            TimeUnit.NANOSECONDS.toMillis(held), lease.acquiredAt);
+                } else {
+                    log.warn("connection manager {} connection to {} was leased for {}ms", name, lease.route,
+                            TimeUnit.NANOSECONDS.toMillis(held));
+                }
+            }
+        }
+        delegate.releaseConnection(conn, newState, validDuration, timeUnit);
+    }
+
+    @Override
+    public void connect(HttpClientConnection conn, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+        metrics.connects.increment();
+        delegate.connect(conn, route, connectTimeout, context);
+    }
+
+    @Override
+    public void upgrade(HttpClientConnection conn, HttpRoute route, HttpContext context) throws IOException {
+        delegate.upgrade(conn, route, context);
+    }
+
+    @Override
+    public void routeComplete(HttpClientConnection conn, HttpRoute route, HttpContext context) throws IOException {
+        delegate.routeComplete(conn, route, context);
+    }
+
+    @Override
+    public void closeIdleConnections(long idletime, TimeUnit timeUnit) {
+        delegate.closeIdleConnections(idletime, timeUnit);
+    }
+
+    @Override
+    public void closeExpiredConnections() {
+        delegate.closeExpiredConnections();
+    }
+
+    @Override
+    public void shutdown() {
+        if (LIVE_MANAGERS.remove(this)) {
+            metrics.shutdown.increment();
+        }
+        delegate.shutdown();
+    }
+
+    /**
+     * 借出时间超过阈值还没有归还的连接
+     */
+    public List<Map<String, Object>> longLeases() {
+        long now = System.nanoTime();
+        List<Map<String, Object>> result = new ArrayList<>();
+        leases.values().stream().filter(lease -> now - lease.startNanos > longLeaseThresholdNanos).forEach(lease -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("manager", name);
+            item.put("route", String.valueOf(lease.route));
+            item.put("heldMs", TimeUnit.NANOSECONDS.toMillis(now - lease.startNanos));
+            if (lease.acquiredAt != null) {
+                item.put("acquiredAt", Arrays.stream(lease.acquiredAt.getStackTrace()).limit(STACK_DEPTH)
+                        .map(StackTraceElement::toString).collect(Collectors.toList()));
+            }
+            result.add(item);
+        });
+        return result;
+    }
+
+    /**
+     * 打开后新借出的连接记录调用栈，已经借出的连接不受影响
+     */
+    public static void setCaptureLeaseStacks(boolean enabled) {
+        captureLeaseStacks = enabled;
+    }
+
+    public static boolean isCaptureLeaseStacks() {
+        return captureLeaseStacks;
+    }
+
+    /**
+     * 所有连接管理器的汇总指标
+     */
+    public static Map<String, Object> stats() {
+        List<InstrumentedConnectionManager> live;
+        synchronized (LIVE_MANAGERS) {
+            live = new ArrayList<>(LIVE_MANAGERS);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("captureLeaseStacks", captureLeaseStacks);
+        stats.put("liveManagers", live.size());
+        stats.put("evictorThreads", Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith(EVICTOR_THREAD_PREFIX)).count());
+        Map<String, Object> byName = new LinkedHashMap<>();
+        METRICS.forEach((name, metrics) -> byName.put(name, metrics.snapshot(
+                live.stream().filter(manager -> manager.name.equals(name)).count())));
+        stats.put("managers", byName);
+        stats.put("longLeases", live.stream().flatMap(manager -> manager.longLeases().stream()).collect(Collectors.toList()));
+        return stats;
+    }
+
+    private static class Lease {
+        private final long startNanos = System.nanoTime();
+        private final HttpRoute route;
+        //没有打开 captureLeaseStacks 时为 null
+        private final Throwable acquiredAt;
+
+        Lease(HttpRoute route, Throwable acquiredAt) {
+            this.route = route;
+            this.acquiredAt = acquiredAt;
+        }
+    }
+
+    private static class Metrics {
+        private final LongAdder created = new LongAdder();
+        private final LongAdder shutdown = new LongAdder();
+        private final LongAdder leases = new LongAdder();
+        private final LongAdder reused = new LongAdder();
+        private final LongAdder connects = new LongAdder();
+        private final LongAdder waitTimeouts = new LongAdder();
+        private final LongAdder longLeases = new LongAdder();
+        private final LatencyHistogram waitTime = new LatencyHistogram();
+        private final LatencyHistogram leaseTime = new LatencyHistogram();
+
+        Map<String, Object> snapshot(long live) {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("created", created.sum());
+            snapshot.put("shutdown", shutdown.sum());
+            snapshot.put("live", live);
+            snapshot.put("leases", leases.sum());
+            snapshot.put("connects", connects.sum());
+            snapshot.put("reuseRatio", leases.sum() == 0 ? 0 : (double) reused.sum() / leases.sum());
+            snapshot.put("waitTimeouts", waitTimeouts.sum());
+            snapshot.put("longLeases", longLeases.sum());
+            snapshot.put("waitTime", waitTime.snapshot());
+            snapshot.put("leaseTime", leaseTime.snapshot());
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.httpclient;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 22:20
+ * @description: 进程内的 /httpclientnotreuse/test 替身，监听随机端口，每个请求等待 delayMillis 后返回 OK，
+ * 用来在不经过 Tomcat 线程池的情况下测量客户端的并发调用延迟
+ */
+public class LocalStubServer implements AutoCloseable {
+
+    private static final byte[] OK = "OK".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public LocalStubServer(long delayMillis, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/httpclientnotreuse/test", exchange -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, OK.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(OK);
+            }
+        });
+        server.start();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/httpclientnotreuse/test";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,129 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.httpclient;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.ParseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 20:10
+ * @description: 基于 HttpAsyncClient 的非阻塞 HttpClient，整个应用共享一个实例
+ * 1. 少量 IO 线程通过 NIO 处理所有连接，等待响应时不占用调用线程，配合返回 CompletableFuture 的 Controller 也不占用 Tomcat 线程；
+ * 2. 连接池大小和每个路由的最大连接数来自 AsyncHttpClientProperties，默认不再是 right() 中的 1 个连接；
+ * 3. stats() 输出连接池的 leased（借出）、available（空闲 keep-alive）、pending（等待连接）数量。
+ */
+@Slf4j
+@Component
+public class PooledAsyncHttpClient {
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient client;
+
+    public PooledAsyncHttpClient(AsyncHttpClientProperties properties) throws IOReactorException {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(properties.getIoThreads())
+                .setConnectTimeout(properties.getConnectTimeoutMillis())
+                .setSoTimeout(properties.getSocketTimeoutMillis())
+                .build();
+        connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig));
+        connectionManager.setMaxTotal(properties.getMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(properties.getDefaultMaxPerRoute());
+        properties.getMaxPerRoute().forEach((host, max) -> connectionManager.setMaxPerRoute(new HttpRoute(HttpHost.create(host)), max));
+        client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(properties.getConnectTimeoutMillis())
+                        .setSocketTimeout(properties.getSocketTimeoutMillis())
+                        .setConnectionRequestTimeout(properties.getConnectionRequestTimeoutMillis())
+                        .build())
+                .build();
+        client.start();
+        log.info("pooled async http client started, maxTotal:{} defaultMaxPerRoute:{} maxPerRoute:{}",
+                properties.getMaxTotal(), properties.getDefaultMaxPerRoute(), properties.getMaxPerRoute());
+    }
+
+    /**
+     * 异步 GET，响应体读取为字符串，回调在 HttpAsyncClient 的 IO 线程中执行，后续处理不要在回调里做阻塞操作
+     * 状态码 >= 400 视为失败；取消返回的 future 会中止对应的请求并归还连接
+     */
+    public CompletableFuture<String> get(String uri) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Future<HttpResponse> request = client.execute(new HttpGet(uri), new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    String body = EntityUtils.toString(response.getEntity());
+                    int status = response.getStatusLine().getStatusCode();
+                    if (status >= 400) {
+                        result.completeExceptionally(new IOException("HTTP " + status + " from " + uri));
+                    } else {
+                        result.complete(body);
+                    }
+                } catch (IOException | ParseException ex) {
+                    result.completeExceptionally(ex);
+                }
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                result.completeExceptionally(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        result.whenComplete((body, ex) -> {
+            if (result.isCancelled()) {
+                request.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>(toMap(connectionManager.getTotalStats()));
+        Map<String, Object> routes = new LinkedHashMap<>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            routes.put(route.getTargetHost().toHostString(), toMap(connectionManager.getStats(route)));
+        }
+        stats.put("routes", routes);
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        client.close();
+    }
+
+    private static Map<String, Object> toMap(PoolStats poolStats) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("leased", poolStats.getLeased());
+        stats.put("available", poolStats.getAvailable());
+        stats.put("pending", poolStats.getPending());
+        stats.put("max", poolStats.getMax());
+        return stats;
+    }
+}
@@ -0,0 +1,240 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.jedis;
+
+import com.sevenluo.java.error.code.common.LatencyHistogram;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/20 16:20
+ * @description: 长期共享的 JedisPool 包装，Redis 变慢时快速失败，而不是让请求线程都堵在 getResource() 上
+ * 实现思路：
+ * 1. 用和 maxTotal 相同数量的信号量控制借连接，拿到许可后 getResource() 不会再阻塞，等待的线程数可以直接从信号量读出来；
+ * 2. 没有空闲连接并且等待的线程已经达到 maxWaiters 时立即拒绝，多出来的请求不再排队；
+ * 3. 借连接的等待时间根据最近一个窗口里命令耗时的分位数计算：前面排着几轮，就等几轮命令的时间，限制在上下限之间；
+ * 4. 借连接超时和连接异常（包括读超时）计为失败，连续失败达到阈值打开熔断器，openMillis 内直接拒绝，
+ *    之后只放一个探测请求，成功则关闭熔断器，失败则重新打开；Redis 返回错误回复（JedisDataException）说明连接和服务端都正常，按成功处理；
+ * 5. 拒绝统一抛出 RejectedExecutionException，调用方可以据此降级。
+ */
+@Slf4j
+public class FailFastJedisPool implements AutoCloseable {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final FailFastJedisProperties properties;
+    private final JedisPool jedisPool;
+    private final Semaphore permits;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong stateChangedAt = new AtomicLong(System.nanoTime());
+
+    private final RollingHistogram recentCommandLatency;
+    private final LatencyHistogram acquireWait = new LatencyHistogram();
+    private final LatencyHistogram commandLatency = new LatencyHistogram();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder breakerRejected = new LongAdder();
+    private final LongAdder borrowTimeouts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder breakerOpened = new LongAdder();
+
+    public FailFastJedisPool(FailFastJedisProperties properties) {
+        this.properties = properties;
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(properties.getMaxTotal());
+        config.setMaxIdle(properties.getMaxTotal());
+        //信号量已经限制了并发借用，这里的等待时间只是兜底
+        config.setMaxWait(Duration.ofMillis(properties.getMaxBorrowTimeoutMillis()));
+        this.jedisPool = new JedisPool(config, properties.getHost(), properties.getPort(),
+                properties.getConnectTimeoutMillis(), properties.getSocketTimeoutMillis(), null, 0, null);
+        this.permits = new Semaphore(properties.getMaxTotal(), true);
+        this.recentCommandLatency = new RollingHistogram(TimeUnit.MILLISECONDS.toNanos(properties.getWindowMillis()));
+    }
+
+    /**
+     * 借一个连接执行命令
+     * @throws RejectedExecutionException 熔断器打开、等待的线程太多或者借连接超时
+     */
+    public <T> T execute(Function<Jedis, T> command) {
+        calls.increment();
+        if (!allowRequest()) {
+            breakerRejected.increment();
+            throw new RejectedExecutionException("redis circuit breaker is open");
+        }
+        if (permits.availablePermits() == 0 && permits.getQueueLength() >= properties.getMaxWaiters()) {
+            shed.increment();
+            throw new RejectedExecutionException("too many threads waiting for a redis connection: " + permits.getQueueLength());
+        }
+        long timeoutNanos = borrowTimeoutNanos();
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("interrupted while waiting for a redis connection", e);
+        }
+        acquireWait.record(System.nanoTime() - start);
+        if (!acquired) {
+            borrowTimeouts.increment();
+            onFailure();
+            throw new RejectedExecutionException("timed out after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms waiting for a redis connection");
+        }
+        long begin = System.nanoTime();
+        try (Jedis jedis = jedisPool.getResource()) {
+            T result = command.apply(jedis);
+            recordCommand(System.nanoTime() - begin);
+            onSuccess();
+            return result;
+        } catch (JedisConnectionException e) {
+            //读超时也要计入耗时，否则 Redis 越慢估计出来的等待时间反而越短
+            recordCommand(System.nanoTime() - begin);
+            failures.increment();
+            onFailure();
+            throw e;
+        } catch (JedisDataException e) {
+            //命令本身出错（WRONGTYPE 等），Redis 已经正常回复，不能让 HALF_OPEN 的探测请求悬而未决
+            recordCommand(System.nanoTime() - begin);
+            onSuccess();
+            throw e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * 当前借连接的等待时间：最近命令耗时分位 * 系数 * 前面排着的轮数（每轮 maxTotal 个连接同时执行）
+     */
+    public long borrowTimeoutNanos() {
+        long percentile = recentCommandLatency.percentileNanos(properties.getTimeoutPercentile());
+        long rounds = permits.getQueueLength() / properties.getMaxTotal() + 1;
+        long timeout = (long) (percentile * properties.getTimeoutMultiplier() * rounds);
+        return Math.max(TimeUnit.MILLISECONDS.toNanos(properties.getMinBorrowTimeoutMillis()),
+                Math.min(timeout, TimeUnit.MILLISECONDS.toNanos(properties.getMaxBorrowTimeoutMillis())));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state.get());
+        stats.put("consecutiveFailures", consecutiveFailures.get());
+        stats.put("borrowTimeoutMs", (double) borrowTimeoutNanos() / TimeUnit.MILLISECONDS.toNanos(1));
+        stats.put("active", jedisPool.getNumActive());
+        stats.put("idle", jedisPool.getNumIdle());
+        stats.put("waiters", permits.getQueueLength());
+        stats.put("calls", calls.sum());
+        stats.put("shed", shed.sum());
+        stats.put("breakerRejected", breakerRejected.sum());
+        stats.put("borrowTimeouts", borrowTimeouts.sum());
+        stats.put("failures", failures.sum());
+        stats.put("breakerOpened", breakerOpened.sum());
+        stats.put("acquireWait", acquireWait.snapshot());
+        stats.put("commandLatency", commandLatency.snapshot());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        jedisPool.close();
+    }
+
+    private void recordCommand(long nanos) {
+        commandLatency.record(nanos);
+        recentCommandLatency.record(nanos);
+    }
+
+    /**
+     * OPEN 超过 openMillis 后第一个请求把状态切到 HALF_OPEN 作为探测；
+     * 探测请求如果被丢弃没有结果，HALF_OPEN 再过 openMillis 后放下一个探测
+     */
+    private boolean allowRequest() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        long changedAt = stateChangedAt.get();
+        if (System.nanoTime() - changedAt < TimeUnit.MILLISECONDS.toNanos(properties.getOpenMillis())) {
+            return false;
+        }
+        return transition(current, State.HALF_OPEN, changedAt);
+    }
+
+    private void onSuccess() {
+        consecutiveFailures.set(0);
+        State current = state.get();
+        if (current != State.CLOSED && transition(current, State.CLOSED, stateChangedAt.get())) {
+            log.info("redis circuit breaker closed");
+        }
+    }
+
+    private void onFailure() {
+        int failed = consecutiveFailures.incrementAndGet();
+        State current = state.get();
+        if ((current == State.HALF_OPEN || (current == State.CLOSED && failed >= properties.getFailureThreshold()))
+                && transition(current, State.OPEN, stateChangedAt.get())) {
+            breakerOpened.increment();
+            log.warn("redis circuit breaker opened after {} consecutive failures", failed);
+        }
+    }
+
+    private boolean transition(State from, State to, long changedAt) {
+        if (!stateChangedAt.compareAndSet(changedAt, System.nanoTime())) {
+            return false;
+        }
+        return state.compareAndSet(from, to);
+    }
+
+    /**
+     * 只保留最近一到两个窗口的耗时直方图，分位数反映的是当前的 Redis 状况而不是启动以来的累计
+     */
+    private static class RollingHistogram {
+        private static final long MIN_SAMPLES = 20;
+
+        private final long windowNanos;
+        private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+        private volatile LatencyHistogram current = new LatencyHistogram();
+        private volatile LatencyHistogram previous = new LatencyHistogram();
+
+        RollingHistogram(long windowNanos) {
+            this.windowNanos = windowNanos;
+        }
+
+        void record(long nanos) {
+            long start = windowStart.get();
+            long now = System.nanoTime();
+            if (now - start > windowNanos && windowStart.compareAndSet(start, now)) {
+                previous = current;
+                current = new LatencyHistogram();
+            }
+            current.record(nanos);
+        }
+
+        long percentileNanos(double percentile) {
+            LatencyHistogram histogram = current;
+            //新窗口刚开始样本太少时继续用上一个窗口
+            return histogram.getCount() >= MIN_SAMPLES ? histogram.percentileNanos(percentile) : previous.percentileNanos(percentile);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.jedis;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/20 16:00
+ * @description: 共享 FailFastJedisPool 的配置，借连接的等待时间由观察到的命令耗时自动计算，这里只配置上下限
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "jedis.failfast")
+public class FailFastJedisProperties {
+
+    private String host = "127.0.0.1";
+    private int port = 6379;
+    private int maxTotal = 8;
+    /**
+     * 等待连接的线程超过这个数量时新的请求直接拒绝
+     */
+    private int maxWaiters = 16;
+    private int connectTimeoutMillis = 1000;
+    private int socketTimeoutMillis = 1000;
+    private long minBorrowTimeoutMillis = 5;
+    private long maxBorrowTimeoutMillis = 500;
+    /**
+     * 借连接的等待时间 = 最近命令耗时的 timeoutPercentile 分位 * timeoutMultiplier * 排在前面的轮次
+     */
+    private double timeoutPercentile = 99;
+    private double timeoutMultiplier = 2;
+    /**
+     * 耗时分位统计的滚动窗口
+     */
+    private long windowMillis = 5000;
+    /**
+     * 连续失败多少次打开熔断器，打开后 openMillis 内直接拒绝，之后放一个探测请求
+     */
+    private int failureThreshold = 5;
+    private long openMillis = 2000;
+}
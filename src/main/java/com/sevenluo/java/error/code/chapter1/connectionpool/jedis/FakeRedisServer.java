@@ -0,0 +1,319 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.jedis;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/20 09:20
+ * @description: 进程内的 Redis 替身，没有安装 redis-server 时用来跑本地压测
+ * 1. 支持 PING、GET、SET、MGET、DEL、EXISTS、INCR、QUIT、SELECT、CLIENT、CONFIG、PUBLISH、PSUBSCRIBE 等 Jedis 常用命令；
+ * 2. CONFIG SET notify-keyspace-events 开启后，SET/DEL/INCR 会向 __keyspace@0__:<key> 频道发布通知，行为和 Redis 一致；
+ * 3. delay 模拟网络往返和慢 Redis：每读完一批已经到达的命令（一次往返）才等待一次再回复，管道化的请求只付出一次延迟；
+ * 4. 每个连接一个线程，只用来做功能验证和压测对比，不追求服务端性能。
+ */
+@Slf4j
+public class FakeRedisServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final Map<String, String> data = new ConcurrentHashMap<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder roundTrips = new LongAdder();
+    private volatile long delayNanos;
+    private volatile String notifyKeyspaceEvents = "";
+
+    public FakeRedisServer() throws IOException {
+        this(0);
+    }
+
+    public FakeRedisServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "fake-redis-acceptor-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 每次往返的额外延迟，可以在运行时调整来模拟 Redis 变慢
+     */
+    public void setDelay(long delay, TimeUnit unit) {
+        this.delayNanos = unit.toNanos(delay);
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public long getCommands() {
+        return commands.sum();
+    }
+
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.forEach(Connection::close);
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                totalConnections.incrementAndGet();
+                Thread thread = new Thread(connection::serve, "fake-redis-connection-" + totalConnections.get());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("fake redis accept failed", e);
+                }
+            }
+        }
+    }
+
+    private long publish(String channel, String message) {
+        long receivers = 0;
+        for (Connection connection : connections) {
+            for (Map.Entry<String, Pattern> subscription : connection.patterns.entrySet()) {
+                if (subscription.getValue().matcher(channel).matches()) {
+                    if (message != null) {
+                        connection.send(Arrays.asList("pmessage", subscription.getKey(), channel, message));
+                    }
+                    receivers++;
+                }
+            }
+        }
+        return receivers;
+    }
+
+    /**
+     * Redis 的 glob 模式转换为正则，只支持 * 和 ?
+     */
+    private static Pattern glob(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private class Connection {
+        private final Socket socket;
+        private final Map<String, Pattern> patterns = new ConcurrentHashMap<>();
+        /**
+         * 执行命令时产生的待发布消息，释放本连接的锁之后再发布，避免两个连接互相发布时交叉加锁
+         */
+        private final List<String[]> outbox = new ArrayList<>();
+        private OutputStream out;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        void serve() {
+            try (Socket ignored = socket) {
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+                while (true) {
+                    Object command = Resp.read(in);
+                    boolean quit = false;
+                    synchronized (this) {
+                        if (command instanceof List && !((List<?>) command).isEmpty()) {
+                            quit = execute((List<?>) command);
+                        } else {
+                            Resp.writeError(out, "ERR Protocol error");
+                        }
+                    }
+                    outbox.forEach(message -> publish(message[0], message[1]));
+                    outbox.clear();
+                    //这一批到达的命令都处理完了，等待模拟的往返延迟后一次性回复
+                    if (in.available() == 0 || quit) {
+                        roundTrips.increment();
+                        long delay = delayNanos;
+                        if (delay > 0) {
+                            TimeUnit.NANOSECONDS.sleep(delay);
+                        }
+                        synchronized (this) {
+                            out.flush();
+                        }
+                    }
+                    if (quit) {
+                        return;
+                    }
+                }
+            } catch (EOFException | SocketException e) {
+                //客户端断开
+            } catch (IOException e) {
+                log.warn("fake redis connection failed", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                connections.remove(this);
+            }
+        }
+
+        synchronized void send(List<String> message) {
+            try {
+                Resp.writeArray(out, message);
+                out.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private boolean execute(List<?> command) throws IOException {
+            commands.increment();
+            List<String> args = new ArrayList<>(command.size());
+            command.forEach(arg -> args.add(String.valueOf(arg)));
+            String name = args.get(0).toUpperCase();
+            switch (name) {
+                case "PING":
+                    Resp.writeSimple(out, "PONG");
+                    break;
+                case "QUIT":
+                    Resp.writeSimple(out, "OK");
+                    return true;
+                case "SELECT":
+                case "CLIENT":
+                case "AUTH":
+                    Resp.writeSimple(out, "OK");
+                    break;
+                case "GET":
+                    Resp.writeBulk(out, data.get(args.get(1)));
+                    break;
+                case "SET":
+                    data.put(args.get(1), args.get(2));
+                    notifyKeyspace("set", args.get(1));
+                    Resp.writeSimple(out, "OK");
+                    break;
+                case "MGET":
+                    List<String> values = new ArrayList<>(args.size() - 1);
+                    for (String key : args.subList(1, args.size())) {
+                        values.add(data.get(key));
+                    }
+                    Resp.writeArray(out, values);
+                    break;
+                case "DEL":
+                    long deleted = 0;
+                    for (String key : args.subList(1, args.size())) {
+                        if (data.remove(key) != null) {
+                            deleted++;
+                            notifyKeyspace("del", key);
+                        }
+                    }
+                    Resp.writeInteger(out, deleted);
+                    break;
+                case "EXISTS":
+                    Resp.writeInteger(out, args.subList(1, args.size()).stream().filter(data::containsKey).count());
+                    break;
+                case "INCR":
+                    try {
+                        String value = data.compute(args.get(1), (key, old) -> String.valueOf(old == null ? 1 : Long.parseLong(old) + 1));
+                        notifyKeyspace("incrby", args.get(1));
+                        Resp.writeInteger(out, Long.parseLong(value));
+                    } catch (NumberFormatException e) {
+                        Resp.writeError(out, "ERR value is not an integer or out of range");
+                    }
+                    break;
+                case "CONFIG":
+                    if (args.size() >= 4 && "SET".equalsIgnoreCase(args.get(1)) && "notify-keyspace-events".equalsIgnoreCase(args.get(2))) {
+                        notifyKeyspaceEvents = args.get(3);
+                        Resp.writeSimple(out, "OK");
+                    } else if (args.size() >= 3 && "GET".equalsIgnoreCase(args.get(1))) {
+                        Resp.writeArray(out, "notify-keyspace-events".equalsIgnoreCase(args.get(2))
+                                ? Arrays.asList("notify-keyspace-events", notifyKeyspaceEvents) : new ArrayList<>());
+                    } else {
+                        Resp.writeSimple(out, "OK");
+                    }
+                    break;
+                case "PUBLISH":
+                    Resp.writeInteger(out, publish(args.get(1), null));
+                    outbox.add(new String[]{args.get(1), args.get(2)});
+                    break;
+                case "PSUBSCRIBE":
+                    for (String pattern : args.subList(1, args.size())) {
+                        patterns.put(pattern, glob(pattern));
+                        Resp.writeArray(out, Arrays.asList("psubscribe", pattern, (long) patterns.size()));
+                    }
+                    break;
+                case "PUNSUBSCRIBE":
+                    List<String> unsubscribe = args.size() > 1 ? args.subList(1, args.size()) : new ArrayList<>(patterns.keySet());
+                    for (String pattern : unsubscribe) {
+                        patterns.remove(pattern);
+                        Resp.writeArray(out, Arrays.asList("punsubscribe", pattern, (long) patterns.size()));
+                    }
+                    break;
+                case "FLUSHALL":
+                case "FLUSHDB":
+                    data.clear();
+                    Resp.writeSimple(out, "OK");
+                    break;
+                case "DBSIZE":
+                    Resp.writeInteger(out, data.size());
+                    break;
+                default:
+                    Resp.writeError(out, "ERR unknown command '" + args.get(0) + "'");
+            }
+            return false;
+        }
+
+        private void notifyKeyspace(String event, String key) {
+            String flags = notifyKeyspaceEvents;
+            if (flags.contains("K")) {
+                outbox.add(new String[]{"__keyspace@0__:" + key, event});
+            }
+            if (flags.contains("E")) {
+                outbox.add(new String[]{"__keyevent@0__:" + event, key});
+            }
+        }
+    }
+}
@@ -1,18 +1,37 @@
 package com.sevenluo.java.error.code.chapter1.connectionpool.jedis;
 
+import com.sevenluo.java.error.code.common.LatencyHistogram;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisExhaustedPoolException;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Jedis 的 API 实现是我们说的三种类型中的第一种，也就是连接池和连接分离的 API.
@@ -25,6 +44,15 @@ public class JedisMisreuseController {
 
     private static JedisPool jedisPool = new JedisPool("127.0.0.1", 6379);
 
+    @Autowired
+    private FailFastJedisProperties failFastJedisProperties;
+    /**
+     * 近端缓存压测连真实 Redis 时是否允许 CONFIG SET notify-keyspace-events，替身服务器总是允许
+     */
+    @Value("${jedis.nearcache.configure-keyspace-events:false}")
+    private boolean configureKeyspaceEvents;
+    private FailFastJedisPool failFastJedisPool;
+
     /**
      * 向 Redis 初始化 2 组数据，Key=a、Value=1，Key=b、Value=2：
      */
@@ -37,6 +65,12 @@ public class JedisMisreuseController {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             jedisPool.close();
         }));
+        failFastJedisPool = new FailFastJedisPool(failFastJedisProperties);
+    }
+
+    @PreDestroy
+    public void closeFailFastPool() {
+        failFastJedisPool.close();
     }
 
     /**
@@ -108,6 +142,399 @@ public class JedisMisreuseController {
         }
     }
 
+    /**
+     * 不再每个请求新建一个 JedisPool，而是使用共享的 FailFastJedisPool，借连接的等待时间根据观察到的命令耗时调整，
+     * Redis 变慢时直接拒绝而不是让请求线程堆积
+     */
+    @GetMapping("timeout/failfast")
+    public String failFastTimeout() {
+        return failFastJedisPool.execute(jedis -> jedis.set("test", "test"));
+    }
+
+    @GetMapping("failfast/stats")
+    public Map<String, Object> failFastStats() {
+        return failFastJedisPool.stats();
+    }
+
+    /**
+     * 对比固定等待时间的 JedisPool 和 FailFastJedisPool：callers 个线程持续读取，FakeRedisServer 依次正常、变慢 slowMillis、恢复，
+     * 每个阶段 phaseMillis，统计每个阶段成功、被拒绝、出错的次数和调用方看到的耗时
+     */
+    @GetMapping("failfast/loadtest")
+    public Map<String, Object> failFastLoadTest(@RequestParam(value = "callers", defaultValue = "64") int callers,
+                                                @RequestParam(value = "phaseMillis", defaultValue = "2000") long phaseMillis,
+                                                @RequestParam(value = "slowMillis", defaultValue = "100") long slowMillis,
+                                                @RequestParam(value = "fixedWaitMillis", defaultValue = "1000") int fixedWaitMillis) throws Exception {
+        Map<String, Object> result = new LinkedHashMap<>();
+        try (FakeRedisServer server = new FakeRedisServer()) {
+            try (Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+                jedis.set("a", "1");
+            }
+            FailFastJedisProperties properties = new FailFastJedisProperties();
+            properties.setPort(server.getPort());
+            JedisPoolConfig config = new JedisPoolConfig();
+            config.setMaxTotal(properties.getMaxTotal());
+            config.setMaxIdle(properties.getMaxTotal());
+            config.setMaxWait(Duration.ofMillis(fixedWaitMillis));
+            try (JedisPool pool = new JedisPool(config, "127.0.0.1", server.getPort(), properties.getSocketTimeoutMillis())) {
+                result.put("fixedWait", runPhases(server, callers, phaseMillis, slowMillis, () -> {
+                    try (Jedis jedis = pool.getResource()) {
+                        return jedis.get("a");
+                    }
+                }, null));
+            }
+            try (FailFastJedisPool pool = new FailFastJedisPool(properties)) {
+                result.put("failFast", runPhases(server, callers, phaseMillis, slowMillis,
+                        () -> pool.execute(jedis -> jedis.get("a")), pool));
+            }
+        }
+        log.info("fail fast load test:{}", result);
+        return result;
+    }
+
+    private static Map<String, Object> runPhases(FakeRedisServer server, int callers, long phaseMillis, long slowMillis,
+                                                 Supplier<String> call, FailFastJedisPool failFastPool) throws InterruptedException {
+        String[] names = {"normal", "slow", "recovered"};
+        long[] delays = {0, TimeUnit.MILLISECONDS.toMicros(slowMillis), 0};
+        AtomicReference<PhaseStats> phase = new AtomicReference<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch latch = new CountDownLatch(callers);
+        server.setDelay(delays[0], TimeUnit.MICROSECONDS);
+        phase.set(new PhaseStats());
+        for (int i = 0; i < callers; i++) {
+            new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        PhaseStats stats = phase.get();
+                        long begin = System.nanoTime();
+                        try {
+                            call.get();
+                            stats.ok.increment();
+                        } catch (RejectedExecutionException | JedisExhaustedPoolException e) {
+                            stats.rejected.increment();
+                        } catch (JedisException e) {
+                            stats.errors.increment();
+                        }
+                        stats.latency.record(System.nanoTime() - begin);
+                        TimeUnit.MILLISECONDS.sleep(1);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            server.setDelay(delays[i], TimeUnit.MICROSECONDS);
+            TimeUnit.MILLISECONDS.sleep(phaseMillis);
+            PhaseStats finished = phase.getAndSet(new PhaseStats());
+            Map<String, Object> stats = finished.toMap();
+            if (failFastPool != null) {
+                stats.put("state", failFastPool.getState());
+                stats.put("borrowTimeoutMs", (double) failFastPool.borrowTimeoutNanos() / TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            result.put(names[i], stats);
+        }
+        running.set(false);
+        latch.await();
+        if (failFastPool != null) {
+            result.put("pool", failFastPool.stats());
+        }
+        return result;
+    }
+
+    private static class PhaseStats {
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Map<String, Object> toMap() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("ok", ok.sum());
+            stats.put("rejected", rejected.sum());
+            stats.put("errors", errors.sum());
+            stats.put("latency", latency.snapshot());
+            return stats;
+        }
+    }
+
+
+    /**
+     * 对比逐个调用和微批处理：callers 个线程每个执行 opsPerCaller 次 GET，
+     * perCall 每次从 JedisPool（最大连接数等于线程数）借连接执行一次 GET，batched 通过 RedisBatcher 合并成 MGET；
+     * 默认连接进程内的 FakeRedisServer，delayMicros 模拟每次往返的网络延迟，standin=false 时连接 127.0.0.1:6379
+     */
+    @GetMapping("batch/benchmark")
+    public Map<String, Object> batchBenchmark(@RequestParam(value = "opsPerCaller", defaultValue = "2000") int opsPerCaller,
+                                              @RequestParam(value = "delayMicros", defaultValue = "100") long delayMicros,
+                                              @RequestParam(value = "standin", defaultValue = "true") boolean standin) throws Exception {
+        Map<String, Object> result = new LinkedHashMap<>();
+        try (FakeRedisServer server = standin ? new FakeRedisServer() : null) {
+            String host = "127.0.0.1";
+            int port = standin ? server.getPort() : 6379;
+            if (standin) {
+                server.setDelay(delayMicros, TimeUnit.MICROSECONDS);
+            }
+            try (Jedis jedis = new Jedis(host, port)) {
+                jedis.set("a", "1");
+            }
+            for (int callers : new int[]{1, 4, 16, 64, 256}) {
+                Map<String, Object> round = new LinkedHashMap<>();
+                JedisPoolConfig config = new JedisPoolConfig();
+                config.setMaxTotal(callers);
+                config.setMaxIdle(callers);
+                try (JedisPool pool = new JedisPool(config, host, port)) {
+                    long roundTrips = standin ? server.getRoundTrips() : 0;
+                    Map<String, Object> perCall = runCallers(callers, opsPerCaller, () -> {
+                        try (Jedis jedis = pool.getResource()) {
+                            Assert.isTrue("1".equals(jedis.get("a")), "a should be 1");
+                        }
+                    });
+                    if (standin) {
+                        perCall.put("roundTrips", server.getRoundTrips() - roundTrips);
+                    }
+                    round.put("perCall", perCall);
+                }
+                JedisPoolConfig batchConfig = new JedisPoolConfig();
+                batchConfig.setMaxTotal(4);
+                try (JedisPool pool = new JedisPool(batchConfig, host, port);
+                     RedisBatcher batcher = new RedisBatcher(pool, 4, 256, 0, TimeUnit.MICROSECONDS)) {
+                    long roundTrips = standin ? server.getRoundTrips() : 0;
+                    Map<String, Object> batched = runCallers(callers, opsPerCaller,
+                            () -> Assert.isTrue("1".equals(batcher.get("a").join()), "a should be 1"));
+                    if (standin) {
+                        batched.put("roundTrips", server.getRoundTrips() - roundTrips);
+                    }
+                    batched.put("avgBatchSize", batcher.stats().get("avgBatchSize"));
+                    round.put("batched", batched);
+                }
+                result.put("callers=" + callers, round);
+            }
+        }
+        log.info("redis batch benchmark:{}", result);
+        return result;
+    }
+
+    /**
+     * 对比 JedisPool 和多路复用客户端：callers 个线程每个同步执行 opsPerCaller 次 GET，
+     * jedisPool 的最大连接数等于线程数，multiplexed 所有线程共享 connections 个连接，
+     * 统计吞吐量、耗时以及压测期间 FakeRedisServer 上新建的连接数，delayMicros 模拟每次往返的网络延迟
+     */
+    @GetMapping("multiplexed/benchmark")
+    public Map<String, Object> multiplexedBenchmark(@RequestParam(value = "opsPerCaller", defaultValue = "500") int opsPerCaller,
+                                                    @RequestParam(value = "connections", defaultValue = "1") int connections,
+                                                    @RequestParam(value = "delayMicros", defaultValue = "100") long delayMicros) throws Exception {
+        Map<String, Object> result = new LinkedHashMap<>();
+        try (FakeRedisServer server = new FakeRedisServer()) {
+            server.setDelay(delayMicros, TimeUnit.MICROSECONDS);
+            try (Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+                jedis.set("a", "1");
+            }
+            for (int callers : new int[]{1, 4, 16, 64, 256, 512}) {
+                Map<String, Object> round = new LinkedHashMap<>();
+                JedisPoolConfig config = new JedisPoolConfig();
+                config.setMaxTotal(callers);
+                config.setMaxIdle(callers);
+                try (JedisPool pool = new JedisPool(config, "127.0.0.1", server.getPort())) {
+                    int opened = server.getTotalConnections();
+                    Map<String, Object> pooled = runCallers(callers, opsPerCaller, () -> {
+                        try (Jedis jedis = pool.getResource()) {
+                            Assert.isTrue("1".equals(jedis.get("a")), "a should be 1");
+                        }
+                    });
+                    pooled.put("connections", server.getTotalConnections() - opened);
+                    round.put("jedisPool", pooled);
+                }
+                try (MultiplexedRedisClient client = new MultiplexedRedisClient("127.0.0.1", server.getPort(), connections, 1000)) {
+                    int opened = server.getTotalConnections();
+                    Map<String, Object> multiplexed = runCallers(callers, opsPerCaller,
+                            () -> Assert.isTrue("1".equals(client.get("a").join()), "a should be 1"));
+                    multiplexed.put("connections", server.getTotalConnections() - opened);
+                    multiplexed.put("commandsPerFlush", client.stats().get("commandsPerFlush"));
+                    round.put("multiplexed", multiplexed);
+                }
+                result.put("callers=" + callers, round);
+            }
+        }
+        log.info("multiplexed redis benchmark:{}", result);
+        return result;
+    }
+
+    /**
+     * callers 个线程各自执行 opsPerCaller 次 operation，统计吞吐量和单次耗时分布
+     */
+    private static Map<String, Object> runCallers(int callers, int opsPerCaller, Runnable operation) throws InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        CountDownLatch latch = new CountDownLatch(callers);
+        long start = System.nanoTime();
+        for (int i = 0; i < callers; i++) {
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < opsPerCaller; j++) {
+                        long begin = System.nanoTime();
+                        operation.run();
+                        latency.record(System.nanoTime() - begin);
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        long took = System.nanoTime() - start;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("opsPerSecond", (long) ((double) callers * opsPerCaller * TimeUnit.SECONDS.toNanos(1) / took));
+        Map<String, Object> snapshot = latency.snapshot();
+        stats.put("meanMs", snapshot.get("meanMs"));
+        stats.put("p99Ms", snapshot.get("p99Ms"));
+        return stats;
+    }
+
+    /**
+     * 近端缓存压测：writers 个线程不断修改 keys 个 key 中的一部分（模拟其他实例的写入），readers 个线程随机读取，
+     * 先直接读 JedisPool 再经过 NearCache 读，各跑 durationMillis；
+     * 写入的值是递增的版本号，读到的版本比读取开始前已经写成功的版本旧就算一次过时读取，过时时间从下一个版本写成功开始算
+     */
+    @GetMapping("nearcache/benchmark")
+    public Map<String, Object> nearCacheBenchmark(@RequestParam(value = "readers", defaultValue = "16") int readers,
+                                                  @RequestParam(value = "writers", defaultValue = "2") int writers,
+                                                  @RequestParam(value = "keys", defaultValue = "100") int keys,
+                                                  @RequestParam(value = "writeIntervalMillis", defaultValue = "5") long writeIntervalMillis,
+                                                  @RequestParam(value = "durationMillis", defaultValue = "2000") long durationMillis,
+                                                  @RequestParam(value = "delayMicros", defaultValue = "100") long delayMicros,
+                                                  @RequestParam(value = "standin", defaultValue = "true") boolean standin) throws Exception {
+        Map<String, Object> result = new LinkedHashMap<>();
+        try (FakeRedisServer server = standin ? new FakeRedisServer() : null) {
+            HostAndPort address = new HostAndPort("127.0.0.1", standin ? server.getPort() : 6379);
+            if (standin) {
+                server.setDelay(delayMicros, TimeUnit.MICROSECONDS);
+            }
+            JedisPoolConfig config = new JedisPoolConfig();
+            config.setMaxTotal(readers + writers);
+            config.setMaxIdle(readers + writers);
+            try (JedisPool pool = new JedisPool(config, address.getHost(), address.getPort())) {
+                VersionedKeys versionedKeys = new VersionedKeys(keys);
+                versionedKeys.reset(pool);
+                result.put("direct", runReadersAndWriters(readers, writers, durationMillis, writeIntervalMillis, versionedKeys, pool, key -> {
+                    try (Jedis jedis = pool.getResource()) {
+                        return jedis.get(key);
+                    }
+                }));
+                versionedKeys.reset(pool);
+                try (NearCache nearCache = new NearCache(pool, address, keys, 10, TimeUnit.SECONDS, standin || configureKeyspaceEvents)) {
+                    Assert.isTrue(nearCache.awaitSubscribed(5, TimeUnit.SECONDS), "near cache should subscribe to keyspace notifications");
+                    Map<String, Object> cached = runReadersAndWriters(readers, writers, durationMillis, writeIntervalMillis, versionedKeys, pool, nearCache::get);
+                    cached.put("cache", nearCache.stats());
+                    result.put("nearCache", cached);
+                }
+            }
+        }
+        log.info("near cache benchmark:{}", result);
+        return result;
+    }
+
+    private static Map<String, Object> runReadersAndWriters(int readers, int writers, long durationMillis, long writeIntervalMillis,
+                                                            VersionedKeys versionedKeys, JedisPool pool,
+                                                            Function<String, String> reader) throws InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram staleness = new LatencyHistogram();
+        LongAdder writes = new LongAdder();
+        CountDownLatch latch = new CountDownLatch(readers + writers);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        for (int i = 0; i < writers; i++) {
+            int writer = i;
+            new Thread(() -> {
+                try (Jedis jedis = pool.getResource()) {
+                    //每个 key 只由一个写线程修改，版本号的写入顺序和大小顺序一致
+                    for (int key = writer; System.nanoTime() < deadline; key = (key + writers) % versionedKeys.size()) {
+                        versionedKeys.write(jedis, key);
+                        writes.increment();
+                        TimeUnit.MILLISECONDS.sleep(writeIntervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        for (int i = 0; i < readers; i++) {
+            new Thread(() -> {
+                try {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        int key = random.nextInt(versionedKeys.size());
+                        long acknowledged = versionedKeys.acknowledged(key);
+                        long begin = System.nanoTime();
+                        long version = Long.parseLong(reader.apply(versionedKeys.name(key)));
+                        long end = System.nanoTime();
+                        latency.record(end - begin);
+                        if (version < acknowledged) {
+                            staleness.record(end - versionedKeys.acknowledgedAt(key, version + 1));
+                        }
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("readsPerSecond", latency.getCount() * 1000 / durationMillis);
+        stats.put("writes", writes.sum());
+        stats.put("readLatency", latency.snapshot());
+        stats.put("staleReads", staleness.getCount());
+        stats.put("staleness", staleness.snapshot());
+        return stats;
+    }
+
+    /**
+     * 压测用的 key，值是每个 key 自己递增的版本号，记录每个版本写成功的时间
+     */
+    private static class VersionedKeys {
+        private final AtomicLongArray versions;
+        private final Map<String, Long> acknowledgedAt = new ConcurrentHashMap<>();
+
+        VersionedKeys(int keys) {
+            this.versions = new AtomicLongArray(keys);
+        }
+
+        int size() {
+            return versions.length();
+        }
+
+        String name(int key) {
+            return "nearcache:" + key;
+        }
+
+        void reset(JedisPool pool) {
+            acknowledgedAt.clear();
+            try (Jedis jedis = pool.getResource()) {
+                for (int key = 0; key < size(); key++) {
+                    versions.set(key, 0);
+                    jedis.set(name(key), "0");
+                }
+            }
+        }
+
+        void write(Jedis jedis, int key) {
+            long version = versions.get(key) + 1;
+            jedis.set(name(key), String.valueOf(version));
+            acknowledgedAt.put(key + ":" + version, System.nanoTime());
+            versions.set(key, version);
+        }
+
+        long acknowledged(int key) {
+            return versions.get(key);
+        }
+
+        long acknowledgedAt(int key, long version) {
+            return acknowledgedAt.get(key + ":" + version);
+        }
+    }
 
     @PostConstruct
     public void closeConnection() {
@@ -0,0 +1,277 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.jedis;
+
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/20 19:00
+ * @description: 多路复用的 Redis 客户端，所有线程共享一个或几个连接，不需要每个并发调用方占用一个连接
+ * 实现思路：
+ * 1. Redis 按收到的顺序回复同一个连接上的命令，所以每个连接维护一个在途 future 队列：写命令前先把 future 放进队列尾部，
+ *    读线程每读到一个回复就完成队列头部的 future；
+ * 2. 调用方只把命令放进写队列就返回 CompletableFuture，每个连接一个写线程取出已经排队的所有命令一起写入后 flush 一次，
+ *    并发越高一次 flush 带出去的命令越多，相当于自动 pipeline；
+ * 3. future 在读线程上完成，thenApply 之类的回调默认也在读线程执行，回调里不能做阻塞操作，需要的话用 thenApplyAsync；
+ * 4. 连接断开时该连接上在途和排队的命令全部以 JedisConnectionException 结束，下一次选中这个连接时重新建立。
+ * 不支持 SUBSCRIBE、MULTI、BLPOP 这类会改变连接状态或者长时间阻塞连接的命令。
+ */
+@Slf4j
+public class MultiplexedRedisClient implements AutoCloseable {
+
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMillis;
+    private final AtomicReferenceArray<Connection> connections;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    public MultiplexedRedisClient(String host, int port, int connections, int connectTimeoutMillis) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("connections must be positive");
+        }
+        this.host = host;
+        this.port = port;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.connections = new AtomicReferenceArray<>(connections);
+    }
+
+    public CompletableFuture<String> get(String key) {
+        return execute("GET", key).thenApply(reply -> (String) reply);
+    }
+
+    public CompletableFuture<String> set(String key, String value) {
+        return execute("SET", key, value).thenApply(reply -> (String) reply);
+    }
+
+    public CompletableFuture<Long> del(String... keys) {
+        String[] args = new String[keys.length + 1];
+        args[0] = "DEL";
+        System.arraycopy(keys, 0, args, 1, keys.length);
+        return execute(args).thenApply(reply -> (Long) reply);
+    }
+
+    /**
+     * 发送任意命令，回复按 Resp 的类型映射返回，Redis 返回的错误以 JedisDataException 结束 future
+     */
+    public CompletableFuture<Object> execute(String... args) {
+        if (closed) {
+            throw new IllegalStateException("redis client is closed");
+        }
+        Command command = new Command(args);
+        Connection connection;
+        try {
+            connection = connection();
+        } catch (JedisConnectionException e) {
+            command.future.completeExceptionally(e);
+            return command.future;
+        }
+        connection.send(command);
+        return command.future;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int open = 0;
+        int inFlight = 0;
+        for (int i = 0; i < connections.length(); i++) {
+            Connection connection = connections.get(i);
+            if (connection != null && !connection.broken) {
+                open++;
+                inFlight += connection.pending.size() + connection.queue.size();
+            }
+        }
+        stats.put("connections", open);
+        stats.put("opened", opened.get());
+        stats.put("inFlight", inFlight);
+        stats.put("commands", commands.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("commandsPerFlush", flushes.sum() == 0 ? 0 : (double) commands.sum() / flushes.sum());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (int i = 0; i < connections.length(); i++) {
+            Connection connection = connections.get(i);
+            if (connection != null) {
+                connection.fail(new JedisConnectionException("redis client is closed"));
+            }
+        }
+    }
+
+    /**
+     * 轮询选择连接，断开的连接在这里重新建立
+     */
+    private Connection connection() {
+        int index = Math.floorMod(next.getAndIncrement(), connections.length());
+        Connection connection = connections.get(index);
+        if (connection != null && !connection.broken) {
+            return connection;
+        }
+        synchronized (this) {
+            connection = connections.get(index);
+            if (connection == null || connection.broken) {
+                connection = new Connection(index);
+                connections.set(index, connection);
+            }
+            return connection;
+        }
+    }
+
+    private static final class Command {
+        private final String[] args;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Command(String[] args) {
+            this.args = args;
+        }
+    }
+
+    private class Connection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        /**
+         * 等待写线程写出的命令
+         */
+        private final BlockingQueue<Command> queue = new LinkedBlockingQueue<>();
+        /**
+         * 已经写出、等待回复的命令，只有写线程入队、读线程出队
+         */
+        private final Queue<Command> pending = new ConcurrentLinkedQueue<>();
+        private final Thread writer;
+        private volatile boolean broken;
+
+        Connection(int index) {
+            socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+                in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+            } catch (IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                throw new JedisConnectionException("failed to connect to " + host + ":" + port, e);
+            }
+            int id = opened.incrementAndGet();
+            writer = new Thread(this::writeLoop, "multiplexed-redis-writer-" + index + "-" + id);
+            writer.setDaemon(true);
+            writer.start();
+            Thread reader = new Thread(this::readLoop, "multiplexed-redis-reader-" + index + "-" + id);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(Command command) {
+            queue.add(command);
+            //入队之后连接才断开的话写线程可能已经退出，这里自己把命令结束掉
+            if (broken && queue.remove(command)) {
+                command.future.completeExceptionally(new JedisConnectionException("connection to " + host + ":" + port + " is broken"));
+            }
+        }
+
+        private void writeLoop() {
+            List<Command> batch = new ArrayList<>();
+            try {
+                while (!broken) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    for (Command command : batch) {
+                        //先登记再写出，读线程收到回复时一定能在队列里找到它
+                        pending.add(command);
+                        Resp.writeCommand(out, command.args);
+                    }
+                    out.flush();
+                    commands.add(batch.size());
+                    flushes.increment();
+                    batch.clear();
+                }
+            } catch (IOException e) {
+                fail(new JedisConnectionException("failed to write to " + host + ":" + port, e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            //fail 清理之后写线程可能又登记了命令，退出前再清理一次
+            failRemaining(new JedisConnectionException("connection to " + host + ":" + port + " is broken"));
+        }
+
+        private void readLoop() {
+            try {
+                while (!broken) {
+                    Object reply = Resp.read(in);
+                    Command command = pending.poll();
+                    if (command == null) {
+                        throw new IOException("received a reply without a pending command");
+                    }
+                    if (reply instanceof Resp.Error) {
+                        command.future.completeExceptionally(new JedisDataException(reply.toString()));
+                    } else {
+                        command.future.complete(reply);
+                    }
+                }
+            } catch (IOException e) {
+                fail(new JedisConnectionException("failed to read from " + host + ":" + port, e));
+            }
+        }
+
+        /**
+         * 关闭连接，排队和在途的命令都以异常结束
+         */
+        void fail(JedisConnectionException e) {
+            if (!broken) {
+                broken = true;
+                if (!closed) {
+                    log.warn("multiplexed redis connection broken: {}", e.toString());
+                }
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            //唤醒阻塞在 take 上的写线程
+            writer.interrupt();
+            failRemaining(e);
+        }
+
+        private void failRemaining(JedisConnectionException e) {
+            Command command;
+            while ((command = pending.poll()) != null) {
+                command.future.completeExceptionally(e);
+            }
+            while ((command = queue.poll()) != null) {
+                command.future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.jedis;
+
+import com.sevenluo.java.error.code.chapter1.current.SingleFlightCache;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/20 14:00
+ * @description: JedisPool 前面的进程内近端缓存，很少变化的 key 命中时不走网络
+ * 实现思路：
+ * 1. 本地存储复用 SingleFlightCache：容量有上限、写入后 ttl 过期，同一个 key 并发未命中时只发一次 GET，Redis 里不存在的 key 用 Optional.empty() 缓存；
+ * 2. 单独一个订阅连接 PSUBSCRIBE __keyspace@0__:*，收到某个 key 的变更通知就把它从本地删除，
+ *    未命中时先在本地放入占位再发 GET，所以 GET 之后发生的修改一定会把这次加载的结果删掉，过时数据的时间以通知延迟为上限；
+ * 3. 订阅连接断开期间收不到通知，此时清空本地缓存并直接读 Redis，重新订阅成功后才恢复使用缓存，ttl 作为兜底；
+ * 4. 通过本对象的 set/del 修改时立即删除本地副本，不用等通知回来。
+ * 需要 Redis 开启 notify-keyspace-events（至少包含 K 和 A），只适用于 0 号库。
+ * 修改 Redis 配置会影响同一个实例上的所有客户端，只有 configureKeyspaceEvents 为 true 时才执行 CONFIG SET，否则只检查并告警，
+ * 没有开启时收不到失效通知，本地缓存只能靠 ttl 过期。
+ */
+@Slf4j
+public class NearCache implements AutoCloseable {
+
+    private static final String KEYSPACE_PREFIX = "__keyspace@0__:";
+    private static final long RESUBSCRIBE_BACKOFF_MILLIS = 1000;
+
+    private final JedisPool jedisPool;
+    private final HostAndPort address;
+    private final SingleFlightCache<String, Optional<String>> cache;
+    private final Thread subscriber;
+    private volatile boolean subscribed;
+    private volatile boolean closed;
+    private volatile Jedis subscription;
+
+    private final LongAdder networkReads = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder resubscribes = new LongAdder();
+
+    public NearCache(JedisPool jedisPool, HostAndPort address, long maximumSize, long ttl, TimeUnit unit) {
+        this(jedisPool, address, maximumSize, ttl, unit, false);
+    }
+
+    /**
+     * @param configureKeyspaceEvents notify-keyspace-events 不包含 K 和 A 时是否用 CONFIG SET 开启
+     */
+    public NearCache(JedisPool jedisPool, HostAndPort address, long maximumSize, long ttl, TimeUnit unit, boolean configureKeyspaceEvents) {
+        this.jedisPool = jedisPool;
+        this.address = address;
+        this.cache = new SingleFlightCache<>(maximumSize, ttl, unit);
+        try (Jedis jedis = jedisPool.getResource()) {
+            List<String> config = jedis.configGet("notify-keyspace-events");
+            String flags = config.size() > 1 ? config.get(1) : "";
+            if (!flags.contains("K") || !flags.contains("A")) {
+                if (configureKeyspaceEvents) {
+                    log.info("enable keyspace notifications, notify-keyspace-events was '{}'", flags);
+                    jedis.configSet("notify-keyspace-events", "KEA");
+                } else {
+                    log.warn("notify-keyspace-events is '{}', near cache will not receive invalidations and relies on ttl, "
+                            + "set it to KEA on the server or enable configureKeyspaceEvents", flags);
+                }
+            }
+        }
+        this.subscriber = new Thread(this::subscribeLoop, "near-cache-subscriber");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    /**
+     * 等待失效订阅建立，订阅建立之前的读取都直接访问 Redis
+     */
+    public boolean awaitSubscribed(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!subscribed) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return true;
+    }
+
+    public String get(String key) {
+        if (!subscribed) {
+            bypassed.increment();
+            return load(key).orElse(null);
+        }
+        return cache.get(key, this::load).orElse(null);
+    }
+
+    public String set(String key, String value) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return jedis.set(key, value);
+        } finally {
+            cache.invalidate(key);
+        }
+    }
+
+    public long del(String key) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return jedis.del(key);
+        } finally {
+            cache.invalidate(key);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>(cache.stats());
+        stats.put("subscribed", subscribed);
+        stats.put("networkReads", networkReads.sum());
+        //命中和合并等待的读取都没有访问网络
+        stats.put("savedNetworkCalls", stats.get("hits"));
+        stats.put("bypassed", bypassed.sum());
+        stats.put("invalidations", invalidations.sum());
+        stats.put("resubscribes", resubscribes.sum());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        subscribed = false;
+        Jedis current = subscription;
+        if (current != null) {
+            //关闭连接让阻塞在 psubscribe 里的订阅线程退出
+            current.close();
+        }
+        try {
+            subscriber.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        cache.invalidateAll();
+    }
+
+    private Optional<String> load(String key) {
+        networkReads.increment();
+        try (Jedis jedis = jedisPool.getResource()) {
+            return Optional.ofNullable(jedis.get(key));
+        }
+    }
+
+    private void subscribeLoop() {
+        while (!closed) {
+            try (Jedis jedis = new Jedis(address)) {
+                subscription = jedis;
+                if (closed) {
+                    return;
+                }
+                jedis.psubscribe(new JedisPubSub() {
+                    @Override
+                    public void onPSubscribe(String pattern, int subscribedChannels) {
+                        //订阅之前缓存的数据可能已经错过了通知
+                        cache.invalidateAll();
+                        subscribed = true;
+                        log.info("near cache subscribed to {}", pattern);
+                    }
+
+                    @Override
+                    public void onPMessage(String pattern, String channel, String message) {
+                        invalidations.increment();
+                        cache.invalidate(channel.substring(KEYSPACE_PREFIX.length()));
+                    }
+                }, KEYSPACE_PREFIX + "*");
+            } catch (Exception e) {
+                if (!closed) {
+                    log.warn("near cache subscription lost, bypass cache until resubscribed: {}", e.toString());
+                }
+            } finally {
+                subscribed = false;
+                subscription = null;
+                cache.invalidateAll();
+            }
+            if (!closed) {
+                resubscribes.increment();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(RESUBSCRIBE_BACKOFF_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.jedis;
+
+import com.sevenluo.java.error.code.common.LatencyHistogram;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/20 10:00
+ * @description: Redis 微批处理，把很多请求线程并发发出的单 key GET/SET 合并成一次 MGET 或 Pipeline，一次往返完成
+ * 实现思路：
+ * 1. 调用方把操作放进队列后立即拿到 CompletableFuture，不占用 Jedis 连接；
+ * 2. dispatchers 个分发线程各自从队列取出第一个操作，再取走队列里已有的操作，不足 maxBatch 时最多再等待 maxDelay 凑批；
+ * 3. 一批全是 GET 时去重后用一条 MGET，否则按提交顺序放进 Pipeline，同一批里对同一个 key 先 SET 后 GET 能读到新值；
+ * 4. 每个分发线程执行一批时从 JedisPool 借一个连接，连接数等于分发线程数，和调用方线程数无关。
+ */
+@Slf4j
+public class RedisBatcher implements AutoCloseable {
+
+    private final JedisPool jedisPool;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> dispatchers = new ArrayList<>();
+    private volatile boolean closed;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public RedisBatcher(JedisPool jedisPool, int dispatchers, int maxBatch, long maxDelay, TimeUnit unit) {
+        if (dispatchers <= 0 || maxBatch <= 0 || maxDelay < 0) {
+            throw new IllegalArgumentException("dispatchers and maxBatch must be positive, maxDelay must not be negative");
+        }
+        this.jedisPool = jedisPool;
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        for (int i = 0; i < dispatchers; i++) {
+            Thread thread = new Thread(this::dispatchLoop, "redis-batcher-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            this.dispatchers.add(thread);
+        }
+    }
+
+    public CompletableFuture<String> get(String key) {
+        return submit(new Op(key, null, false));
+    }
+
+    public CompletableFuture<String> set(String key, String value) {
+        return submit(new Op(key, value, true));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("operations", operations.sum());
+        stats.put("batches", batches.sum());
+        stats.put("avgBatchSize", batches.sum() == 0 ? 0 : (double) operations.sum() / batches.sum());
+        stats.put("failures", failures.sum());
+        stats.put("queued", queue.size());
+        stats.put("latency", latency.snapshot());
+        return stats;
+    }
+
+    /**
+     * 停止分发线程，队列中还没有执行的操作以异常结束
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatchers.forEach(Thread::interrupt);
+        for (Thread dispatcher : dispatchers) {
+            try {
+                dispatcher.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        Op op;
+        while ((op = queue.poll()) != null) {
+            op.future.completeExceptionally(new IllegalStateException("redis batcher is closed"));
+        }
+    }
+
+    private CompletableFuture<String> submit(Op op) {
+        if (closed) {
+            throw new IllegalStateException("redis batcher is closed");
+        }
+        queue.add(op);
+        //入队之后才关闭的话分发线程和 close() 的清理可能都已经结束，自己把操作取回来结束掉
+        if (closed && queue.remove(op)) {
+            op.future.completeExceptionally(new IllegalStateException("redis batcher is closed"));
+        }
+        return op.future;
+    }
+
+    private void dispatchLoop() {
+        List<Op> batch = new ArrayList<>(maxBatch);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + maxDelayNanos;
+                long remaining;
+                while (batch.size() < maxBatch && (remaining = deadline - System.nanoTime()) > 0) {
+                    Op op = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (op == null) {
+                        break;
+                    }
+                    batch.add(op);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+            } catch (InterruptedException e) {
+                if (batch.isEmpty()) {
+                    continue;
+                }
+            }
+            execute(batch);
+            batch.clear();
+        }
+    }
+
+    private void execute(List<Op> batch) {
+        batches.increment();
+        operations.add(batch.size());
+        try (Jedis jedis = jedisPool.getResource()) {
+            if (batch.stream().noneMatch(op -> op.write)) {
+                List<String> keys = new ArrayList<>(new LinkedHashSet<>(batch.stream().map(op -> op.key).collect(Collectors.toList())));
+                List<String> values = keys.size() == 1 ? Collections.singletonList(jedis.get(keys.get(0)))
+                        : jedis.mget(keys.toArray(new String[0]));
+                Map<String, String> byKey = new HashMap<>(keys.size() * 2);
+                for (int i = 0; i < keys.size(); i++) {
+                    byKey.put(keys.get(i), values.get(i));
+                }
+                batch.forEach(op -> op.complete(byKey.get(op.key)));
+            } else {
+                Pipeline pipeline = jedis.pipelined();
+                List<Response<String>> responses = new ArrayList<>(batch.size());
+                for (Op op : batch) {
+                    responses.add(op.write ? pipeline.set(op.key, op.value) : pipeline.get(op.key));
+                }
+                pipeline.sync();
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).complete(responses.get(i).get());
+                }
+            }
+        } catch (Exception e) {
+            failures.add(batch.size());
+            log.warn("redis batch of {} operations failed", batch.size(), e);
+            batch.forEach(op -> op.future.completeExceptionally(e));
+        }
+    }
+
+    private class Op {
+        private final String key;
+        private final String value;
+        private final boolean write;
+        private final long submitNanos = System.nanoTime();
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        Op(String key, String value, boolean write) {
+            this.key = key;
+            this.value = value;
+            this.write = write;
+        }
+
+        void complete(String result) {
+            latency.record(System.nanoTime() - submitNanos);
+            future.complete(result);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.sevenluo.java.error.code.chapter1.connectionpool.jedis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/20 09:00
+ * @description: RESP2 协议的最小编解码实现，供 Redis 替身服务器和多路复用客户端共用
+ * 回复类型映射：简单字符串 -> String，错误 -> Resp.Error，整数 -> Long，批量字符串 -> String（nil 为 null），数组 -> List
+ * 调用方需要传入带缓冲的流。
+ */
+final class Resp {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private Resp() {
+    }
+
+    static final class Error {
+        final String message;
+
+        Error(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return message;
+        }
+    }
+
+    /**
+     * 命令编码为批量字符串数组
+     */
+    static void writeCommand(OutputStream out, String... args) throws IOException {
+        out.write(('*' + Integer.toString(args.length)).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        for (String arg : args) {
+            writeBulk(out, arg);
+        }
+    }
+
+    static void writeSimple(OutputStream out, String value) throws IOException {
+        out.write(('+' + value).getBytes(StandardCharsets.UTF_8));
+        out.write(CRLF);
+    }
+
+    static void writeError(OutputStream out, String message) throws IOException {
+        out.write(('-' + message).getBytes(StandardCharsets.UTF_8));
+        out.write(CRLF);
+    }
+
+    static void writeInteger(OutputStream out, long value) throws IOException {
+        out.write((':' + Long.toString(value)).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+    }
+
+    static void writeBulk(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.write("$-1".getBytes(StandardCharsets.US_ASCII));
+            out.write(CRLF);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(('$' + Integer.toString(bytes.length)).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        out.write(bytes);
+        out.write(CRLF);
+    }
+
+    static void writeArray(OutputStream out, List<?> values) throws IOException {
+        out.write(('*' + Integer.toString(values.size())).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        for (Object value : values) {
+            if (value instanceof Long) {
+                writeInteger(out, (Long) value);
+            } else {
+                writeBulk(out, (String) value);
+            }
+        }
+    }
+
+    /**
+     * 读取一个完整的回复（或者一条命令），流已经结束时抛出 EOFException
+     */
+    static Object read(InputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            throw new EOFException("connection closed");
+        }
+        String line = readLine(in);
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                return new Error(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] bytes = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    int n = in.read(bytes, read, length - read);
+                    if (n < 0) {
+                        throw new EOFException("connection closed");
+                    }
+                    read += n;
+                }
+                readLine(in);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            case '*': {
+                int count = Integer.parseInt(line);
+                if (count < 0) {
+                    return null;
+                }
+                List<Object> values = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    values.add(read(in));
+                }
+                return values;
+            }
+            default:
+                throw new IOException("unknown RESP type: " + (char) type);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(16);
+        int b;
+        while ((b = in.read()) != '\r') {
+            if (b < 0) {
+                throw new EOFException("connection closed");
+            }
+            line.write(b);
+        }
+        if (in.read() != '\n') {
+            throw new IOException("malformed RESP line");
+        }
+        return line.toString(StandardCharsets.UTF_8.name());
+    }
+}
@@ -0,0 +1,121 @@
+package com.sevenluo.java.error.code.chapter1.current;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 19:10
+ * @description: 批量写时复制的 List，读线程和 CopyOnWriteArrayList 一样无锁读取不可变快照，但不是每次写入都复制整个数组
+ * 实现思路：
+ * 1. 写线程先把元素放进待发布缓冲区；
+ * 2. 缓冲区攒够 batchSize 个元素，或者最早的待发布元素已经等待超过 maxStaleness，才复制一次数组并发布新快照；
+ * 3. 读线程只看已发布的快照，最多落后 batchSize 次写入；写入停止之后，读线程发现待发布元素超过 maxStaleness 时自己发布一次，
+ *    没有待发布元素时读路径只多读一个 volatile 变量；
+ * 4. copiedBytes 统计发布快照时复制的引用字节数，用来和 CopyOnWriteArrayList 每次写入都整体复制做对比。
+ */
+public class BatchedCopyOnWriteList<E> extends AbstractList<E> implements RandomAccess {
+
+    /**
+     * 开启压缩指针时每个引用占 4 字节
+     */
+    public static final int REFERENCE_BYTES = 4;
+
+    private final int batchSize;
+    private final long maxStalenessNanos;
+    private final Object lock = new Object();
+    private final List<E> pending = new ArrayList<>();
+    private final LongAdder copiedBytes = new LongAdder();
+    private volatile Object[] snapshot = new Object[0];
+    /**
+     * 缓冲区非空时为 true，oldestPendingNanos 是其中最早元素的写入时间
+     */
+    private volatile boolean hasPending;
+    private volatile long oldestPendingNanos;
+
+    public BatchedCopyOnWriteList(int batchSize, long maxStaleness, TimeUnit unit) {
+        if (batchSize <= 0 || maxStaleness < 0) {
+            throw new IllegalArgumentException("batchSize must be positive and maxStaleness must not be negative");
+        }
+        this.batchSize = batchSize;
+        this.maxStalenessNanos = unit.toNanos(maxStaleness);
+    }
+
+    @Override
+    public boolean add(E element) {
+        synchronized (lock) {
+            long now = System.nanoTime();
+            if (pending.isEmpty()) {
+                oldestPendingNanos = now;
+                hasPending = true;
+            }
+            pending.add(element);
+            if (pending.size() >= batchSize || now - oldestPendingNanos >= maxStalenessNanos) {
+                publish();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 立即发布所有待发布的元素
+     */
+    public void flush() {
+        synchronized (lock) {
+            if (!pending.isEmpty()) {
+                publish();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        return (E) readSnapshot()[index];
+    }
+
+    @Override
+    public int size() {
+        return readSnapshot().length;
+    }
+
+    /**
+     * 待发布、读线程还看不到的元素个数
+     */
+    public int pendingSize() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public long getCopiedBytes() {
+        return copiedBytes.sum();
+    }
+
+    /**
+     * 写入停止之后没有人调用 flush() 时，由读线程发布超过 maxStaleness 的待发布元素
+     */
+    private Object[] readSnapshot() {
+        if (hasPending && System.nanoTime() - oldestPendingNanos >= maxStalenessNanos) {
+            flush();
+        }
+        return snapshot;
+    }
+
+    private void publish() {
+        Object[] current = snapshot;
+        Object[] next = new Object[current.length + pending.size()];
+        System.arraycopy(current, 0, next, 0, current.length);
+        for (int i = 0; i < pending.size(); i++) {
+            next[current.length + i] = pending.get(i);
+        }
+        copiedBytes.add((long) next.length * REFERENCE_BYTES);
+        pending.clear();
+        snapshot = next;
+        hasPending = false;
+    }
+}
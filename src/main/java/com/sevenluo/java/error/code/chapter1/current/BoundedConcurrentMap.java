@@ -0,0 +1,111 @@
+package com.sevenluo.java.error.code.chapter1.current;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 17:00
+ * @description: 有容量上限的 ConcurrentHashMap，用“先预留名额再插入”替代 synchronized 包住 size() 判断和 putAll()
+ * 实现思路：
+ * 1. reserved 记录已经被预留的名额，线程通过 CAS 一次性预留若干个名额，总数永远不会超过 capacity；
+ * 2. 拿到名额后在锁外生成数据并插入，生成数据的耗时不会阻塞其他线程；
+ * 3. 插入时 key 已存在或数据不足，没有用掉的名额会被归还。
+ */
+public class BoundedConcurrentMap<K, V> {
+
+    private final int capacity;
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final ConcurrentHashMap<K, V> map;
+
+    public BoundedConcurrentMap(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.map = new ConcurrentHashMap<>(capacity);
+    }
+
+    /**
+     * 预留最多 wanted 个名额
+     * @return 实际拿到的名额数，容量已满时返回 0
+     */
+    public int reserve(int wanted) {
+        while (true) {
+            int current = reserved.get();
+            int granted = Math.min(wanted, capacity - current);
+            if (granted <= 0) {
+                return 0;
+            }
+            if (reserved.compareAndSet(current, current + granted)) {
+                return granted;
+            }
+        }
+    }
+
+    /**
+     * 归还没有用掉的名额
+     */
+    public void release(int slots) {
+        reserved.addAndGet(-slots);
+    }
+
+    /**
+     * 使用一个已经预留的名额插入，key 已存在时名额被归还
+     */
+    public boolean putReserved(K key, V value) {
+        if (map.putIfAbsent(key, value) == null) {
+            return true;
+        }
+        release(1);
+        return false;
+    }
+
+    /**
+     * 预留最多 wanted 个名额，在锁外用 generator 生成对应数量的数据并插入
+     * @return 实际插入的元素个数
+     */
+    public int fill(int wanted, IntFunction<Map<K, V>> generator) {
+        int granted = reserve(wanted);
+        if (granted == 0) {
+            return 0;
+        }
+        int inserted = 0;
+        try {
+            for (Map.Entry<K, V> entry : generator.apply(granted).entrySet()) {
+                if (inserted == granted) {
+                    break;
+                }
+                if (map.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                    inserted++;
+                }
+            }
+        } finally {
+            //重复的 key 和生成不足的部分统一归还
+            release(granted - inserted);
+        }
+        return inserted;
+    }
+
+    /**
+     * 补齐到容量上限
+     */
+    public int fill(IntFunction<Map<K, V>> generator) {
+        return fill(capacity, generator);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public Map<K, V> asMap() {
+        return Collections.unmodifiableMap(map);
+    }
+}
@@ -0,0 +1,88 @@
+package com.sevenluo.java.error.code.chapter1.current;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 18:00
+ * @description: 只追加的并发 List，写入不需要复制数组，读取不需要加锁，介于 CopyOnWriteArrayList 和 synchronizedList 之间
+ * 实现思路：
+ * 1. 元素存放在固定大小的分段数组（chunk）中，写线程 CAS 递增 tail 拿到下标，再写入对应分段，分段按需用 CAS 创建；
+ *    tail 只在小于容量时才递增，满了直接拒绝，已经分配的下标一定会被写入；
+ * 2. 已经发布的元素不会移动，读线程按下标直接读取，不加锁；
+ * 3. 下标已经分配但写线程还没写入的位置，读线程短暂自旋等待，因此不允许添加 null；
+ * 4. 只支持 add 和 get，不支持删除和修改。
+ */
+public class ChunkedAppendList<E> extends AbstractList<E> implements RandomAccess {
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MAX_CHUNKS = 1 << 16;
+
+    private final int capacity;
+    private final AtomicReferenceArray<AtomicReferenceArray<E>> chunks;
+    private final AtomicInteger tail = new AtomicInteger();
+
+    public ChunkedAppendList() {
+        this(MAX_CHUNKS << CHUNK_SHIFT);
+    }
+
+    /**
+     * @param capacity 最多能追加的元素个数，不超过 2^28
+     */
+    public ChunkedAppendList(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CHUNKS << CHUNK_SHIFT) {
+            throw new IllegalArgumentException("capacity must be in (0, " + (MAX_CHUNKS << CHUNK_SHIFT) + "]");
+        }
+        this.capacity = capacity;
+        this.chunks = new AtomicReferenceArray<>((capacity + CHUNK_MASK) >>> CHUNK_SHIFT);
+    }
+
+    @Override
+    public boolean add(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        int index;
+        do {
+            index = tail.get();
+            if (index >= capacity) {
+                throw new IllegalStateException("ChunkedAppendList is full");
+            }
+        } while (!tail.compareAndSet(index, index + 1));
+        chunk(index >>> CHUNK_SHIFT).set(index & CHUNK_MASK, element);
+        return true;
+    }
+
+    @Override
+    public E get(int index) {
+        if (index < 0 || index >= tail.get()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        AtomicReferenceArray<E> chunk;
+        E element;
+        //下标已经分配但还没有写入，等待写线程完成
+        while ((chunk = chunks.get(index >>> CHUNK_SHIFT)) == null || (element = chunk.get(index & CHUNK_MASK)) == null) {
+            Thread.onSpinWait();
+        }
+        return element;
+    }
+
+    @Override
+    public int size() {
+        return tail.get();
+    }
+
+    private AtomicReferenceArray<E> chunk(int chunkIndex) {
+        AtomicReferenceArray<E> chunk = chunks.get(chunkIndex);
+        if (chunk == null) {
+            chunks.compareAndSet(chunkIndex, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            chunk = chunks.get(chunkIndex);
+        }
+        return chunk;
+    }
+}
@@ -1,12 +1,19 @@
 package com.sevenluo.java.error.code.chapter1.current;
 
+import com.sevenluo.java.error.code.common.SkewedKeys;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 /**
  * ConcurrentHashMap computeIfAbsent 和 putIfAbsent 方法的区别？
@@ -14,9 +21,13 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class CommonMistakesApplication {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         // test(new HashMap<>());
         test(new ConcurrentHashMap<>());
+        //压测耗时较长，传入参数 benchmark 时才运行
+        if (args.length > 0 && "benchmark".equals(args[0])) {
+            benchmark(64, 200_000, 10_000);
+        }
     }
 
     private static void test(Map<String, String> map) {
@@ -36,6 +47,54 @@ public class CommonMistakesApplication {
 
     }
 
+    /**
+     * 64 个线程按倾斜分布访问 distinct 个 key，每次加载耗时 10 毫秒：
+     * computeIfAbsent 在桶锁内加载，哈希到同一个桶的其他 key 也要等待；
+     * SingleFlightCache 在锁外加载，并发未命中同一个 key 只加载一次；
+     * 再用 distinct 十分之一的容量跑一次，看 SLRU 在容量不足时的命中率
+     */
+    private static void benchmark(int threads, int operations, int distinct) throws InterruptedException {
+        Function<Long, String> loader = key -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return String.valueOf(key);
+        };
+        LongAdder loads = new LongAdder();
+        Map<Long, String> map = new ConcurrentHashMap<>();
+        long tookMs = run(threads, operations, i -> map.computeIfAbsent(SkewedKeys.key(i, distinct), key -> {
+            loads.increment();
+            return loader.apply(key);
+        }));
+        log.info("computeIfAbsent took:{}ms ops/s:{} loads:{} size:{}", tookMs, operations * 1000L / Math.max(1, tookMs), loads.sum(), map.size());
+
+        for (int maximumSize : new int[]{distinct, distinct / 10}) {
+            SingleFlightCache<Long, String> cache = new SingleFlightCache<>(maximumSize, 1, TimeUnit.MINUTES);
+            tookMs = run(threads, operations, i -> cache.get(SkewedKeys.key(i, distinct), loader));
+            log.info("singleFlightCache maximumSize:{} took:{}ms ops/s:{} stats:{}", maximumSize, tookMs,
+                    operations * 1000L / Math.max(1, tookMs), cache.stats());
+        }
+    }
+
+    private static long run(int threads, int operations, IntConsumer operation) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                int i;
+                while ((i = next.incrementAndGet()) <= operations) {
+                    operation.accept(i);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
     private static String getValue() {
         try {
             TimeUnit.SECONDS.sleep(1);
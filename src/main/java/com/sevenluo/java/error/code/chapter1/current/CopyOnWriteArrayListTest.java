@@ -4,11 +4,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.StopWatch;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -28,6 +30,7 @@ public class CopyOnWriteArrayListTest {
     public Map testWrite() {
         List<Integer> copyOnWriteArrayList = new CopyOnWriteArrayList<>();
         List<Integer> synchronizedList = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> chunkedAppendList = new ChunkedAppendList<>();
         StopWatch stopWatch = new StopWatch();
         int loopCount = 100000;
         stopWatch.start("Write:copyOnWriteArrayList");
@@ -38,10 +41,15 @@ public class CopyOnWriteArrayListTest {
         //循环100000次并发往加锁的ArrayList写入随机元素
         IntStream.rangeClosed(1, loopCount).parallel().forEach(__ -> synchronizedList.add(ThreadLocalRandom.current().nextInt(loopCount)));
         stopWatch.stop();
+        stopWatch.start("Write:chunkedAppendList");
+        //循环100000次并发往分段追加的ChunkedAppendList写入随机元素
+        IntStream.rangeClosed(1, loopCount).parallel().forEach(__ -> chunkedAppendList.add(ThreadLocalRandom.current().nextInt(loopCount)));
+        stopWatch.stop();
         log.info(stopWatch.prettyPrint());
         Map result = new HashMap();
         result.put("copyOnWriteArrayList", copyOnWriteArrayList.size());
         result.put("synchronizedList", synchronizedList.size());
+        result.put("chunkedAppendList", chunkedAppendList.size());
         return result;
     }
 
@@ -56,9 +64,11 @@ public class CopyOnWriteArrayListTest {
         //创建两个测试对象
         List<Integer> copyOnWriteArrayList = new CopyOnWriteArrayList<>();
         List<Integer> synchronizedList = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> chunkedAppendList = new ChunkedAppendList<>();
         //填充数据
         addAll(copyOnWriteArrayList);
         addAll(synchronizedList);
+        addAll(chunkedAppendList);
         StopWatch stopWatch = new StopWatch();
         int loopCount = 1000000;
         int count = copyOnWriteArrayList.size();
@@ -70,10 +80,70 @@ public class CopyOnWriteArrayListTest {
         //循环1000000次并发从加锁的ArrayList随机查询元素
         IntStream.range(0, loopCount).parallel().forEach(__ -> synchronizedList.get(ThreadLocalRandom.current().nextInt(count)));
         stopWatch.stop();
+        stopWatch.start("Read:chunkedAppendList");
+        //循环1000000次并发从ChunkedAppendList随机查询元素
+        IntStream.range(0, loopCount).parallel().forEach(__ -> chunkedAppendList.get(ThreadLocalRandom.current().nextInt(count)));
+        stopWatch.stop();
         log.info(stopWatch.prettyPrint());
         Map result = new HashMap();
         result.put("copyOnWriteArrayList", copyOnWriteArrayList.size());
         result.put("synchronizedList", synchronizedList.size());
+        result.put("chunkedAppendList", chunkedAppendList.size());
+        return result;
+    }
+
+    //对比CopyOnWriteArrayList和BatchedCopyOnWriteList并发写入时每次写入复制的字节数
+    @GetMapping("batched")
+    public Map testBatched(@RequestParam(value = "batchSize", defaultValue = "100") int batchSize,
+                           @RequestParam(value = "maxStalenessMicros", defaultValue = "1000") long maxStalenessMicros) {
+        List<Integer> copyOnWriteArrayList = new CopyOnWriteArrayList<>();
+        BatchedCopyOnWriteList<Integer> batchedList = new BatchedCopyOnWriteList<>(batchSize, maxStalenessMicros, TimeUnit.MICROSECONDS);
+        StopWatch stopWatch = new StopWatch();
+        int loopCount = 100000;
+        stopWatch.start("Write:copyOnWriteArrayList");
+        IntStream.rangeClosed(1, loopCount).parallel().forEach(__ -> copyOnWriteArrayList.add(ThreadLocalRandom.current().nextInt(loopCount)));
+        stopWatch.stop();
+        stopWatch.start("Write:batchedCopyOnWriteList");
+        IntStream.rangeClosed(1, loopCount).parallel().forEach(__ -> batchedList.add(ThreadLocalRandom.current().nextInt(loopCount)));
+        batchedList.flush();
+        stopWatch.stop();
+        log.info(stopWatch.prettyPrint());
+        //CopyOnWriteArrayList第k次写入会生成长度为k的新数组，累计复制1+2+...+n个引用
+        long copyOnWriteBytes = (long) loopCount * (loopCount + 1) / 2 * BatchedCopyOnWriteList.REFERENCE_BYTES;
+        Map result = new LinkedHashMap();
+        result.put("copyOnWriteArrayList", copyOnWriteArrayList.size());
+        result.put("batchedCopyOnWriteList", batchedList.size());
+        result.put("copyOnWriteArrayListBytesPerWrite", copyOnWriteBytes / loopCount);
+        result.put("batchedCopyOnWriteListBytesPerWrite", batchedList.getCopiedBytes() / loopCount);
+        return result;
+    }
+
+    //测试不同读写比例下的性能，readPercent=90表示90%读10%写
+    @GetMapping("mixed")
+    public Map testMixed(@RequestParam(value = "readPercent", defaultValue = "90") int readPercent) {
+        Map<String, List<Integer>> lists = new LinkedHashMap<>();
+        lists.put("copyOnWriteArrayList", new CopyOnWriteArrayList<>());
+        lists.put("synchronizedList", Collections.synchronizedList(new ArrayList<>()));
+        lists.put("chunkedAppendList", new ChunkedAppendList<>());
+        StopWatch stopWatch = new StopWatch();
+        int loopCount = 100000;
+        Map result = new HashMap();
+        lists.forEach((name, list) -> {
+            //先放入一些数据，保证一开始就有元素可读
+            list.addAll(IntStream.rangeClosed(1, 1000).boxed().collect(Collectors.toList()));
+            stopWatch.start("Mixed" + readPercent + ":" + name);
+            IntStream.rangeClosed(1, loopCount).parallel().forEach(__ -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                if (random.nextInt(100) < readPercent) {
+                    list.get(random.nextInt(list.size()));
+                } else {
+                    list.add(random.nextInt(loopCount));
+                }
+            });
+            stopWatch.stop();
+            result.put(name, list.size());
+        });
+        log.info(stopWatch.prettyPrint());
         return result;
     }
 }
@@ -1,13 +1,20 @@
 package com.sevenluo.java.error.code.chapter1.current;
 
+import com.sevenluo.java.error.code.common.AllocationMeter;
+import com.sevenluo.java.error.code.common.SkewedKeys;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.Assert;
 import org.springframework.util.StopWatch;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
@@ -98,9 +105,70 @@ public class CurrentHashMapTest {
         return "OK";
     }
 
+    /**
+     * 先用 CAS 预留名额，再在锁外生成数据并插入，元素个数同样不会超过 ITEM_COUNT
+     * @return
+     * @throws InterruptedException
+     */
+    @GetMapping("reserve")
+    public String reserve() throws InterruptedException {
+        BoundedConcurrentMap<String, Long> boundedMap = new BoundedConcurrentMap<>(ITEM_COUNT);
+        boundedMap.fill(ITEM_COUNT - 100, this::getData);
+        log.info("init size:{}", boundedMap.size());
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(THREAD_COUNT);
+        forkJoinPool.execute(() -> IntStream.rangeClosed(1, 10).parallel().forEach(i -> {
+            int inserted = boundedMap.fill(this::getData);
+            log.info("gap size:{}", inserted);
+        }));
+        forkJoinPool.shutdown();
+        forkJoinPool.awaitTermination(1, TimeUnit.HOURS);
+
+        log.info("finish size:{}", boundedMap.size());
+        return "OK";
+    }
+
+    /**
+     * 对比 right() 的加锁补齐和 reserve() 的预留名额补齐在 10~64 个线程下的耗时，
+     * 每个任务最多补充 batch 个元素，任务数是填满容量所需任务数的两倍
+     * @param capacity 容量上限
+     * @param batch 每个任务最多补充的元素个数
+     * @return 每种方式的耗时（毫秒）
+     */
+    @GetMapping("reserve/benchmark")
+    public Map<String, Long> reserveBenchmark(@RequestParam(value = "capacity", defaultValue = "100000") int capacity,
+                                              @RequestParam(value = "batch", defaultValue = "100") int batch) throws InterruptedException {
+        int tasks = capacity / batch * 2;
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int threads : new int[]{10, 16, 32, 64}) {
+            ConcurrentHashMap<String, Long> concurrentHashMap = new ConcurrentHashMap<>(capacity);
+            long begin = System.currentTimeMillis();
+            ForkJoinPool forkJoinPool = new ForkJoinPool(threads);
+            forkJoinPool.execute(() -> IntStream.rangeClosed(1, tasks).parallel().forEach(i -> {
+                synchronized (concurrentHashMap) {
+                    int gap = Math.min(batch, capacity - concurrentHashMap.size());
+                    concurrentHashMap.putAll(getData(gap));
+                }
+            }));
+            forkJoinPool.shutdown();
+            forkJoinPool.awaitTermination(1, TimeUnit.HOURS);
+            result.put("synchronized:threads=" + threads, System.currentTimeMillis() - begin);
+            Assert.isTrue(concurrentHashMap.size() == capacity, "synchronized size error");
 
+            BoundedConcurrentMap<String, Long> boundedMap = new BoundedConcurrentMap<>(capacity);
+            begin = System.currentTimeMillis();
+            forkJoinPool = new ForkJoinPool(threads);
+            forkJoinPool.execute(() -> IntStream.rangeClosed(1, tasks).parallel().forEach(i -> boundedMap.fill(batch, this::getData)));
+            forkJoinPool.shutdown();
+            forkJoinPool.awaitTermination(1, TimeUnit.HOURS);
+            result.put("reserve:threads=" + threads, System.currentTimeMillis() - begin);
+            Assert.isTrue(boundedMap.size() == capacity, "reserve size error");
+        }
+        log.info("reserve benchmark:{}", result);
+        return result;
+    }
 
-    private Map<String, Long> normaluse() throws InterruptedException {
+    private Map<String, Long> normaluse(AllocationMeter allocationMeter) throws InterruptedException {
         //循环次数
         int LOOP_COUNT = 10000000;
         //线程数量
@@ -108,7 +176,7 @@ public class CurrentHashMapTest {
         //元素数量
         int ITEM_COUNT = 10;
         ConcurrentHashMap<String, Long> freqs = new ConcurrentHashMap<>(ITEM_COUNT);
-        ForkJoinPool forkJoinPool = new ForkJoinPool(THREAD_COUNT);
+        ForkJoinPool forkJoinPool = allocationMeter.newForkJoinPool(THREAD_COUNT);
         forkJoinPool.execute(() -> IntStream.rangeClosed(1, LOOP_COUNT).parallel().forEach(i -> {
                     //获得一个随机的Key
                     String key = "item" + ThreadLocalRandom.current().nextInt(ITEM_COUNT);
@@ -129,7 +197,7 @@ public class CurrentHashMapTest {
     }
 
 
-    private Map<String, Long> gooduse() throws InterruptedException {
+    private Map<String, Long> gooduse(AllocationMeter allocationMeter) throws InterruptedException {
         //循环次数
         int LOOP_COUNT = 10000000;
         //线程数量
@@ -137,7 +205,7 @@ public class CurrentHashMapTest {
         //元素数量
         int ITEM_COUNT = 10;
         ConcurrentHashMap<String, LongAdder> freqs = new ConcurrentHashMap<>(ITEM_COUNT);
-        ForkJoinPool forkJoinPool = new ForkJoinPool(THREAD_COUNT);
+        ForkJoinPool forkJoinPool = allocationMeter.newForkJoinPool(THREAD_COUNT);
         forkJoinPool.execute(() -> IntStream.rangeClosed(1, LOOP_COUNT).parallel().forEach(i -> {
                     String key = "item" + ThreadLocalRandom.current().nextInt(ITEM_COUNT);
                     //利用computeIfAbsent()方法来实例化LongAdder，然后利用LongAdder来进行线程安全计数
@@ -154,6 +222,26 @@ public class CurrentHashMapTest {
                 );
     }
 
+    /**
+     * key 直接使用商品下标，不拼接字符串，也不装箱，计数过程中没有对象分配
+     */
+    private LongCounterMap.Snapshot primitiveuse(AllocationMeter allocationMeter) throws InterruptedException {
+        //循环次数
+        int LOOP_COUNT = 10000000;
+        //线程数量
+        int THREAD_COUNT = 10;
+        //元素数量
+        int ITEM_COUNT = 10;
+        LongCounterMap freqs = new LongCounterMap(ITEM_COUNT, THREAD_COUNT);
+        ForkJoinPool forkJoinPool = allocationMeter.newForkJoinPool(THREAD_COUNT);
+        forkJoinPool.execute(() -> IntStream.rangeClosed(1, LOOP_COUNT).parallel().forEach(i ->
+                freqs.increment(ThreadLocalRandom.current().nextInt(ITEM_COUNT))
+        ));
+        forkJoinPool.shutdown();
+        forkJoinPool.awaitTermination(1, TimeUnit.HOURS);
+        return freqs.snapshot();
+    }
+
 
     @GetMapping("good")
     public String good() throws InterruptedException {
@@ -164,8 +252,12 @@ public class CurrentHashMapTest {
         //元素数量
         int ITEM_COUNT = 10;
         StopWatch stopWatch = new StopWatch();
+        Map<String, AllocationMeter> allocationMeters = new LinkedHashMap<>();
+        allocationMeters.put("normaluse", new AllocationMeter());
+        allocationMeters.put("gooduse", new AllocationMeter());
+        allocationMeters.put("primitiveuse", new AllocationMeter());
         stopWatch.start("normaluse");
-        Map<String, Long> normaluse = normaluse();
+        Map<String, Long> normaluse = normaluse(allocationMeters.get("normaluse"));
         stopWatch.stop();
         //校验元素数量
         Assert.isTrue(normaluse.size() == ITEM_COUNT, "normaluse size error");
@@ -174,15 +266,96 @@ public class CurrentHashMapTest {
                         .mapToLong(item -> item.getValue()).reduce(0, Long::sum) == LOOP_COUNT
                 , "normaluse count error");
         stopWatch.start("gooduse");
-        Map<String, Long> gooduse = gooduse();
+        Map<String, Long> gooduse = gooduse(allocationMeters.get("gooduse"));
         stopWatch.stop();
         Assert.isTrue(gooduse.size() == ITEM_COUNT, "gooduse size error");
         Assert.isTrue(gooduse.entrySet().stream()
                         .mapToLong(item -> item.getValue())
                         .reduce(0, Long::sum) == LOOP_COUNT
                 , "gooduse count error");
+        stopWatch.start("primitiveuse");
+        LongCounterMap.Snapshot primitiveuse = primitiveuse(allocationMeters.get("primitiveuse"));
+        stopWatch.stop();
+        Assert.isTrue(primitiveuse.keys.length == ITEM_COUNT, "primitiveuse size error");
+        Assert.isTrue(primitiveuse.total() == LOOP_COUNT, "primitiveuse count error");
         log.info(stopWatch.prettyPrint());
+        //耗时旁边输出每次计数平均分配的字节数
+        for (StopWatch.TaskInfo task : stopWatch.getTaskInfo()) {
+            log.info("{} took:{}ms bytes/op:{}", task.getTaskName(), task.getTimeMillis(),
+                    (double) allocationMeters.get(task.getTaskName()).getAllocatedBytes() / LOOP_COUNT);
+        }
         return "OK";
     }
 
+    /**
+     * 对比精确计数的 ConcurrentHashMap 和固定内存的 HeavyHitters 在倾斜分布下统计 Top-K 的耗时和准确率
+     * @param k 需要的热点 key 个数
+     * @param epsilon 估计误差占总次数的比例上限
+     * @param delta 超出误差上限的概率
+     * @param distinct key 的基数
+     * @param count 计数次数
+     * @return
+     */
+    @GetMapping("topk")
+    public Map<String, Object> topK(@RequestParam(value = "k", defaultValue = "10") int k,
+                                    @RequestParam(value = "epsilon", defaultValue = "0.0001") double epsilon,
+                                    @RequestParam(value = "delta", defaultValue = "0.01") double delta,
+                                    @RequestParam(value = "distinct", defaultValue = "1000") int distinct,
+                                    @RequestParam(value = "count", defaultValue = "10000000") int count) throws InterruptedException {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start("exact");
+        ConcurrentHashMap<Long, LongAdder> exact = new ConcurrentHashMap<>();
+        ForkJoinPool forkJoinPool = new ForkJoinPool(THREAD_COUNT);
+        forkJoinPool.execute(() -> IntStream.rangeClosed(1, count).parallel().forEach(i ->
+                exact.computeIfAbsent(SkewedKeys.key(i, distinct), key -> new LongAdder()).increment()));
+        forkJoinPool.shutdown();
+        forkJoinPool.awaitTermination(1, TimeUnit.HOURS);
+        stopWatch.stop();
+
+        stopWatch.start("heavyHitters");
+        HeavyHitters heavyHitters = new HeavyHitters(k, epsilon, delta);
+        forkJoinPool = new ForkJoinPool(THREAD_COUNT);
+        forkJoinPool.execute(() -> IntStream.rangeClosed(1, count).parallel().forEach(i ->
+                heavyHitters.add(SkewedKeys.key(i, distinct))));
+        forkJoinPool.shutdown();
+        forkJoinPool.awaitTermination(1, TimeUnit.HOURS);
+        Map<Long, Long> topK = heavyHitters.topK();
+        stopWatch.stop();
+        log.info(stopWatch.prettyPrint());
+
+        //精确的 Top-K，用来计算召回率和误差
+        Set<Long> exactTopK = exact.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+                .limit(k).map(Map.Entry::getKey).collect(Collectors.toSet());
+        long hits = topK.keySet().stream().filter(exactTopK::contains).count();
+        double maxError = topK.entrySet().stream()
+                .mapToDouble(e -> (double) (e.getValue() - exact.get(e.getKey()).sum()) / count)
+                .max().orElse(0);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("distinct", distinct);
+        result.put("exactMs", stopWatch.getTaskInfo()[0].getTimeMillis());
+        result.put("heavyHittersMs", stopWatch.getTaskInfo()[1].getTimeMillis());
+        result.put("exactKeys", exact.size());
+        result.put("sketchBytes", heavyHitters.sketchBytes());
+        result.put("recall", exactTopK.isEmpty() ? 1.0 : (double) hits / exactTopK.size());
+        result.put("maxRelativeError", maxError);
+        result.put("topK", topK);
+        return result;
+    }
+
+    /**
+     * 在 10、1000、1000000 个不同 key 下分别运行 topk
+     */
+    @GetMapping("topk/benchmark")
+    public List<Map<String, Object>> topKBenchmark(@RequestParam(value = "k", defaultValue = "10") int k) throws InterruptedException {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (int distinct : new int[]{10, 1000, 1000000}) {
+            Map<String, Object> stats = topK(k, 0.0001, 0.01, distinct, 10000000);
+            stats.remove("topK");
+            result.add(stats);
+        }
+        return result;
+    }
+
 }
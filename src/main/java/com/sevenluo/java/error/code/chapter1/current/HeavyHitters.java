@@ -0,0 +1,114 @@
+package com.sevenluo.java.error.code.chapter1.current;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 16:10
+ * @description: 固定内存的 Top-K 热点统计（Count-Min Sketch + 候选集），只关心最热的 K 个 key 时用来替代精确计数的 ConcurrentHashMap
+ * 实现思路：
+ * 1. Count-Min Sketch 有 depth 行、每行 width 个计数器，width = e / epsilon，depth = ln(1 / delta)，
+ *    估计值不会偏小，以 1 - delta 的概率偏大不超过 epsilon * 总次数；
+ * 2. 估计值超过当前第 K 名门槛、还不在候选集中的 key 放入候选集，候选集超过 2K 时由抢到 tryLock 的线程裁剪回 K 个，其他线程不等待；
+ * 3. 内存只和 epsilon、delta、K 有关，与 key 的基数无关。
+ */
+public class HeavyHitters {
+
+    private final int k;
+    private final int width;
+    private final int depth;
+    private final AtomicLongArray sketch;
+    private final long[] seeds;
+    /**
+     * 候选集只保存 key，估计值以 sketch 为准，在 topK/trim 时重新计算
+     */
+    private final Set<Long> candidates = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock trimLock = new ReentrantLock();
+    /**
+     * 进入候选集的最低估计值
+     */
+    private volatile long threshold;
+
+    public HeavyHitters(int k, double epsilon, double delta) {
+        if (k <= 0 || epsilon <= 0 || epsilon >= 1 || delta <= 0 || delta >= 1) {
+            throw new IllegalArgumentException("k must be positive, epsilon and delta must be in (0, 1)");
+        }
+        this.k = k;
+        this.width = (int) Math.ceil(Math.E / epsilon);
+        this.depth = (int) Math.ceil(Math.log(1 / delta));
+        this.sketch = new AtomicLongArray(width * depth);
+        this.seeds = new Random(42).longs(depth).toArray();
+    }
+
+    public void add(long key) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, sketch.incrementAndGet(row * width + index(key, row)));
+        }
+        //已经在候选集中的热点 key 只做一次无锁的 contains，不再写 map
+        if ((estimate > threshold || candidates.size() < k) && !candidates.contains(key) && candidates.add(key)) {
+            if (candidates.size() > 2 * k && trimLock.tryLock()) {
+                try {
+                    trim();
+                } finally {
+                    trimLock.unlock();
+                }
+            }
+        }
+    }
+
+    public long estimate(long key) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, sketch.get(row * width + index(key, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * 按估计值从大到小返回最多 K 个 key
+     */
+    public Map<Long, Long> topK() {
+        List<Long> keys = new ArrayList<>(candidates);
+        Map<Long, Long> estimates = new LinkedHashMap<>();
+        keys.stream().map(key -> new long[]{key, estimate(key)})
+                .sorted((a, b) -> Long.compare(b[1], a[1]))
+                .limit(k)
+                .forEach(e -> estimates.put(e[0], e[1]));
+        return estimates;
+    }
+
+    /**
+     * Sketch 占用的字节数
+     */
+    public long sketchBytes() {
+        return (long) width * depth * Long.BYTES;
+    }
+
+    private void trim() {
+        List<long[]> entries = new ArrayList<>();
+        candidates.forEach(key -> entries.add(new long[]{key, estimate(key)}));
+        entries.sort((a, b) -> Long.compare(b[1], a[1]));
+        for (int i = k; i < entries.size(); i++) {
+            candidates.remove(entries.get(i)[0]);
+        }
+        threshold = entries.get(Math.min(k, entries.size()) - 1)[1];
+    }
+
+    private int index(long key, int row) {
+        //每行使用不同种子的 splitmix64 哈希
+        long h = (key ^ seeds[row]) * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        return (int) ((h & Long.MAX_VALUE) % width);
+    }
+}
@@ -0,0 +1,163 @@
+package com.sevenluo.java.error.code.chapter1.current;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 15:05
+ * @description: 基于开放寻址的 long -> long 并发计数 Map，计数过程中不分配任何对象
+ * 实现思路：
+ * 1. key 存在 AtomicLongArray 中，线性探测，空槽用 CAS 占位；
+ * 2. 每个 key 有 stripes 个计数单元，线程按 id 选择其中一个单元累加，热点 key 的竞争被分散；
+ * 3. 计数单元按 stripe 优先排列（counts[stripe * capacity + slot]），同一个 key 的不同单元相隔 capacity 个 long，不会落在同一个缓存行；
+ * 4. 容量固定不扩容，key 的数量需要预估，插满后抛出 IllegalStateException；
+ * 5. int 类型的 key（比如预先把字符串映射成的下标）直接使用 increment(int) 即可。
+ */
+public class LongCounterMap {
+
+    /**
+     * 空槽标记，因此 Long.MIN_VALUE 不能作为 key
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final int capacity;
+    private final int mask;
+    private final int stripes;
+    private final AtomicLongArray keys;
+    private final AtomicLongArray counts;
+
+    public LongCounterMap(int expectedKeys, int stripes) {
+        if (expectedKeys <= 0 || stripes <= 0) {
+            throw new IllegalArgumentException("expectedKeys and stripes must be positive");
+        }
+        //负载因子 0.5，并且至少 8 个槽，保证同一 key 的不同计数单元不在同一个缓存行
+        this.capacity = Math.max(8, powerOfTwo(expectedKeys * 2));
+        this.mask = capacity - 1;
+        this.stripes = powerOfTwo(stripes);
+        this.keys = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            keys.set(i, EMPTY);
+        }
+        this.counts = new AtomicLongArray(capacity * this.stripes);
+    }
+
+    public void increment(int key) {
+        add(key, 1);
+    }
+
+    public void increment(long key) {
+        add(key, 1);
+    }
+
+    public void add(long key, long delta) {
+        long id = Thread.currentThread().getId();
+        int stripe = (int) (id ^ (id >>> 16)) & (stripes - 1);
+        counts.getAndAdd(stripe * capacity + slot(key), delta);
+    }
+
+    public long get(long key) {
+        int index = find(key);
+        return index < 0 ? 0 : sum(index);
+    }
+
+    /**
+     * 返回当前所有 key 及计数的快照，只在调用时分配两个数组
+     */
+    public Snapshot snapshot() {
+        int size = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (keys.get(i) != EMPTY) {
+                size++;
+            }
+        }
+        long[] snapshotKeys = new long[size];
+        long[] snapshotCounts = new long[size];
+        int n = 0;
+        for (int i = 0; i < capacity && n < size; i++) {
+            long key = keys.get(i);
+            if (key != EMPTY) {
+                snapshotKeys[n] = key;
+                snapshotCounts[n] = sum(i);
+                n++;
+            }
+        }
+        return new Snapshot(snapshotKeys, snapshotCounts);
+    }
+
+    private long sum(int index) {
+        long sum = 0;
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            sum += counts.get(stripe * capacity + index);
+        }
+        return sum;
+    }
+
+    private int find(long key) {
+        int index = hash(key) & mask;
+        for (int probe = 0; probe < capacity; probe++) {
+            long current = keys.get(index);
+            if (current == key) {
+                return index;
+            }
+            if (current == EMPTY) {
+                return -1;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(long key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Long.MIN_VALUE is reserved");
+        }
+        int index = hash(key) & mask;
+        for (int probe = 0; probe < capacity; probe++) {
+            long current = keys.get(index);
+            if (current == key) {
+                return index;
+            }
+            if (current == EMPTY) {
+                if (keys.compareAndSet(index, EMPTY, key)) {
+                    return index;
+                }
+                //被其他线程抢先占用，如果占用的正好是同一个 key 就直接使用
+                if (keys.get(index) == key) {
+                    return index;
+                }
+            }
+            index = (index + 1) & mask;
+        }
+        throw new IllegalStateException("LongCounterMap is full, capacity " + capacity);
+    }
+
+    private static int powerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 快照，keys[i] 对应 counts[i]
+     */
+    public static class Snapshot {
+        public final long[] keys;
+        public final long[] counts;
+
+        Snapshot(long[] keys, long[] counts) {
+            this.keys = keys;
+            this.counts = counts;
+        }
+
+        public long total() {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            return total;
+        }
+    }
+}
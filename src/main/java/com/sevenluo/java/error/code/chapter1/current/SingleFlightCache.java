@@ -0,0 +1,295 @@
+package com.sevenluo.java.error.code.chapter1.current;
+
+import com.sevenluo.java.error.code.common.LatencyHistogram;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 18:00
+ * @description: 合并并发加载的缓存，解决 putIfAbsent(key, getValue()) 每次都要付出计算代价、computeIfAbsent 计算期间锁住整个桶的问题
+ * 实现思路：
+ * 1. map 里存放的是 CompletableFuture，同一个 key 并发未命中时只有 putIfAbsent 成功的线程在 map 锁之外执行加载，其他线程等待同一个 future；
+ * 2. 加载失败或者返回 null 时把 future 从 map 中移除，异常只传给本次等待的线程，不会被缓存；
+ * 3. 写入后超过 ttl 的元素在读取时视为未命中并重新加载；
+ * 4. 容量淘汰使用分段 LRU（SLRU）：新元素进入 probation 段，再次被访问才晋升到 protected 段，淘汰优先从 probation 段的最久未访问元素开始，
+ *    一次性扫描大量冷数据不会把热点数据挤出去；
+ * 5. 读操作只把访问记录放进按线程分片的有损缓冲区，由拿到 tryLock 的线程批量整理 LRU 顺序，读路径上不需要等待锁，
+ *    因此元素个数可能短暂超过 maximumSize。
+ */
+public class SingleFlightCache<K, V> {
+
+    private static final int READ_BUFFER_SIZE = 64;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final long maximumSize;
+    private final long ttlNanos;
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+
+    private final ArrayBlockingQueue<Node<K, V>>[] readBuffers;
+    private final Queue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    //以下两个段只在持有 evictionLock 时访问
+    private final LinkedHashMap<K, Node<K, V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<K, V>> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LatencyHistogram loadTime = new LatencyHistogram();
+
+    @SuppressWarnings("unchecked")
+    public SingleFlightCache(long maximumSize, long ttl, TimeUnit unit) {
+        if (maximumSize <= 0 || ttl <= 0) {
+            throw new IllegalArgumentException("maximumSize and ttl must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1);
+        this.readBuffers = new ArrayBlockingQueue[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ArrayBlockingQueue<>(READ_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * 获取缓存，未命中时用 loader 加载，并发未命中同一个 key 时只加载一次
+     * @throws CompletionException 加载失败
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        return getAsync(key, loader).join();
+    }
+
+    /**
+     * 获取缓存的 future，当前线程负责加载时 loader 在当前线程同步执行，返回时 future 已经完成
+     */
+    public CompletableFuture<V> getAsync(K key, Function<? super K, ? extends V> loader) {
+        long now = System.nanoTime();
+        Node<K, V> node = data.get(key);
+        if (node != null && !node.isExpired(now)) {
+            recordRead(node);
+            return node.future;
+        }
+        Node<K, V> created = new Node<>(key, now + ttlNanos);
+        while (true) {
+            if (node == null) {
+                node = data.putIfAbsent(key, created);
+                if (node == null) {
+                    break;
+                }
+            } else if (node.isExpired(now)) {
+                if (data.replace(key, node, created)) {
+                    afterWrite(removeTask(node));
+                    break;
+                }
+                node = data.get(key);
+            } else {
+                recordRead(node);
+                return node.future;
+            }
+        }
+        misses.increment();
+        afterWrite(addTask(created));
+        load(created, loader);
+        return created.future;
+    }
+
+    /**
+     * 已经缓存并且没有过期的值，不触发加载
+     */
+    public V getIfPresent(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null || node.isExpired(System.nanoTime()) || !node.future.isDone() || node.future.isCompletedExceptionally()) {
+            return null;
+        }
+        recordRead(node);
+        return node.future.join();
+    }
+
+    public void invalidate(K key) {
+        Node<K, V> node = data.remove(key);
+        if (node != null) {
+            afterWrite(removeTask(node));
+        }
+    }
+
+    /**
+     * 清空缓存，例如失去了失效通知、无法判断哪些元素已经过时的时候
+     */
+    public void invalidateAll() {
+        data.keySet().forEach(this::invalidate);
+    }
+
+    public long size() {
+        return data.size();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.sum();
+        long requests = hitCount + misses.sum();
+        stats.put("size", data.size());
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("hitRatio", requests == 0 ? 0 : (double) hitCount / requests);
+        stats.put("loadFailures", loadFailures.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("loadTime", loadTime.snapshot());
+        return stats;
+    }
+
+    private void load(Node<K, V> node, Function<? super K, ? extends V> loader) {
+        long start = System.nanoTime();
+        V value;
+        try {
+            value = loader.apply(node.key);
+        } catch (Throwable ex) {
+            fail(node, ex);
+            return;
+        } finally {
+            loadTime.record(System.nanoTime() - start);
+        }
+        if (value == null) {
+            fail(node, new NullPointerException("loader returned null for key " + node.key));
+            return;
+        }
+        node.future.complete(value);
+    }
+
+    /**
+     * 失败的加载不缓存，下一次访问会重新加载
+     */
+    private void fail(Node<K, V> node, Throwable ex) {
+        loadFailures.increment();
+        if (data.remove(node.key, node)) {
+            afterWrite(removeTask(node));
+        }
+        node.future.completeExceptionally(ex);
+    }
+
+    private void recordRead(Node<K, V> node) {
+        hits.increment();
+        if (!node.future.isDone()) {
+            coalesced.increment();
+        }
+        ArrayBlockingQueue<Node<K, V>> buffer = readBuffers[(int) Thread.currentThread().getId() & (readBuffers.length - 1)];
+        //缓冲区满了就丢弃这次访问记录，LRU 顺序只是近似的
+        if (!buffer.offer(node) || buffer.size() >= READ_BUFFER_SIZE / 2) {
+            tryMaintenance();
+        }
+    }
+
+    private void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        tryMaintenance();
+    }
+
+    /**
+     * 拿不到锁说明有其他线程正在整理，它释放锁后会检查写缓冲区，不会遗漏写操作
+     */
+    private void tryMaintenance() {
+        do {
+            if (!evictionLock.tryLock()) {
+                return;
+            }
+            try {
+                drainReadBuffers();
+                Runnable task;
+                while ((task = writeBuffer.poll()) != null) {
+                    task.run();
+                }
+                evict();
+            } finally {
+                evictionLock.unlock();
+            }
+        } while (!writeBuffer.isEmpty());
+    }
+
+    private void drainReadBuffers() {
+        for (ArrayBlockingQueue<Node<K, V>> buffer : readBuffers) {
+            Node<K, V> node;
+            while ((node = buffer.poll()) != null) {
+                onAccess(node);
+            }
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (protectedSegment.get(node.key) == node) {
+            //accessOrder 的 LinkedHashMap 在 get 时已经移到了队尾
+            return;
+        }
+        if (probation.get(node.key) == node) {
+            probation.remove(node.key);
+            protectedSegment.put(node.key, node);
+            //protected 段超出比例时把最久未访问的元素降级回 probation 段
+            long protectedMax = (long) (maximumSize * PROTECTED_RATIO);
+            Iterator<Map.Entry<K, Node<K, V>>> iterator = protectedSegment.entrySet().iterator();
+            while (protectedSegment.size() > protectedMax && iterator.hasNext()) {
+                Node<K, V> demoted = iterator.next().getValue();
+                iterator.remove();
+                probation.put(demoted.key, demoted);
+            }
+        }
+    }
+
+    private Runnable addTask(Node<K, V> node) {
+        return () -> {
+            //写缓冲区中的添加可能晚于同一个节点的删除执行，节点已经不在 map 中时不能再放回段里，否则会覆盖新节点、占用容量
+            if (data.get(node.key) != node) {
+                return;
+            }
+            protectedSegment.remove(node.key);
+            probation.put(node.key, node);
+        };
+    }
+
+    private Runnable removeTask(Node<K, V> node) {
+        return () -> {
+            probation.remove(node.key, node);
+            protectedSegment.remove(node.key, node);
+        };
+    }
+
+    private void evict() {
+        while (probation.size() + protectedSegment.size() > maximumSize) {
+            LinkedHashMap<K, Node<K, V>> segment = probation.isEmpty() ? protectedSegment : probation;
+            Iterator<Map.Entry<K, Node<K, V>>> iterator = segment.entrySet().iterator();
+            Node<K, V> victim = iterator.next().getValue();
+            iterator.remove();
+            if (data.remove(victim.key, victim)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private static class Node<K, V> {
+        private final K key;
+        private final long expireAtNanos;
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+
+        Node(K key, long expireAtNanos) {
+            this.key = key;
+            this.expireAtNanos = expireAtNanos;
+        }
+
+        boolean isExpired(long now) {
+            return now - expireAtNanos >= 0;
+        }
+    }
+}
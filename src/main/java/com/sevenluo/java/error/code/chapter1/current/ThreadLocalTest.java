@@ -1,12 +1,31 @@
 package com.sevenluo.java.error.code.chapter1.current;
 
+import com.sevenluo.java.error.code.common.RequestScope;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * @author: sevenluo
@@ -15,6 +34,7 @@ import java.util.Map;
  */
 @RestController
 @RequestMapping("threadlocal")
+@Slf4j
 public class ThreadLocalTest {
 
     private static final ThreadLocal currentUser = ThreadLocal.withInitial(() -> null);
@@ -50,4 +70,123 @@ public class ThreadLocalTest {
         }
     }
 
+    private static final RequestScope.Key<Integer> CURRENT_USER = RequestScope.newKey("currentUser");
+
+    private final ExecutorService asyncPool = Executors.newFixedThreadPool(2, RequestScope.threadFactory("threadlocal-async-"));
+
+    @Value("${server.port:8080}")
+    private int port;
+
+    /**
+     * 使用 RequestScope 保存用户信息，请求结束由 RequestScopeFilter 自动清理，提交到线程池的任务也能拿到用户信息
+     */
+    @GetMapping("scope")
+    public Map scope(@RequestParam("userId") Integer userId) throws ExecutionException, InterruptedException {
+        String before = Thread.currentThread().getName() + ":" + RequestScope.get(CURRENT_USER);
+        RequestScope.set(CURRENT_USER, userId);
+        String after = Thread.currentThread().getName() + ":" + RequestScope.get(CURRENT_USER);
+        //在其他线程中读取用户信息
+        String async = asyncPool.submit(RequestScope.wrap(() ->
+                Thread.currentThread().getName() + ":" + RequestScope.get(CURRENT_USER))).get();
+        //并行流的元素在 ForkJoin 工作线程上处理，map 里的函数用 wrapFunction 包装才能读到用户信息
+        List<String> parallel = IntStream.range(0, 4).boxed().parallel()
+                .map(RequestScope.wrapFunction(i -> Thread.currentThread().getName() + ":" + RequestScope.get(CURRENT_USER)))
+                .collect(Collectors.toList());
+        Map result = new HashMap();
+        result.put("before", before);
+        result.put("after", after);
+        result.put("async", async);
+        result.put("parallel", parallel);
+        return result;
+    }
+
+    /**
+     * 对比 ThreadLocal 和 RequestScope 一次 set 加一次 get 的平均耗时（纳秒）
+     */
+    @GetMapping("scope/benchmark")
+    public Map scopeBenchmark(@RequestParam(value = "loopCount", defaultValue = "10000000") int loopCount) throws ExecutionException, InterruptedException {
+        ThreadLocal<Integer> threadLocal = new ThreadLocal<>();
+        long sink = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < loopCount; i++) {
+            threadLocal.set(i);
+            sink += threadLocal.get();
+        }
+        long threadLocalNanos = System.nanoTime() - begin;
+        threadLocal.remove();
+        begin = System.nanoTime();
+        for (int i = 0; i < loopCount; i++) {
+            RequestScope.set(CURRENT_USER, i);
+            sink += RequestScope.get(CURRENT_USER);
+        }
+        long requestScopeNanos = System.nanoTime() - begin;
+        //先取一次上下文，循环里只按下标读写数组
+        RequestScope scope = RequestScope.current();
+        begin = System.nanoTime();
+        for (int i = 0; i < loopCount; i++) {
+            scope.setValue(CURRENT_USER, i);
+            sink += scope.getValue(CURRENT_USER);
+        }
+        long requestScopeHandleNanos = System.nanoTime() - begin;
+        //ScopedThread 上的静态 get/set 直接读线程字段
+        long[] scopedThreadResult = asyncPool.submit(RequestScope.wrap(() -> {
+            long scopedSink = 0;
+            long scopedBegin = System.nanoTime();
+            for (int i = 0; i < loopCount; i++) {
+                RequestScope.set(CURRENT_USER, i);
+                scopedSink += RequestScope.get(CURRENT_USER);
+            }
+            return new long[]{System.nanoTime() - scopedBegin, scopedSink};
+        })).get();
+        sink += scopedThreadResult[1];
+        Map result = new LinkedHashMap();
+        result.put("threadLocalNanosPerOp", (double) threadLocalNanos / loopCount);
+        result.put("requestScopeNanosPerOp", (double) requestScopeNanos / loopCount);
+        result.put("requestScopeHandleNanosPerOp", (double) requestScopeHandleNanos / loopCount);
+        result.put("scopedThreadNanosPerOp", (double) scopedThreadResult[0] / loopCount);
+        result.put("sink", sink);
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdownAsyncPool() {
+        asyncPool.shutdown();
+    }
+
+    private static final Pattern LEAK_FREE = Pattern.compile("\"before\":\"[^\"]*:null\"");
+    private static final Duration LEAK_CHECK_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * 用不同的 userId 多次请求 wrong 和 scope，统计请求开始时就读到了上一个用户信息的次数。
+     * 检查请求本身占用一个 Tomcat 工作线程，每个子请求都带超时，工作线程不够导致超时时直接返回错误而不是一直等待
+     */
+    @GetMapping("scope/leakcheck")
+    public Map leakCheck(@RequestParam(value = "requests", defaultValue = "100") int requests) throws Exception {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(LEAK_CHECK_TIMEOUT).build();
+        Map result = new LinkedHashMap();
+        for (String endpoint : new String[]{"wrong", "scope"}) {
+            int leaked = 0;
+            for (int i = 1; i <= requests; i++) {
+                HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://127.0.0.1:" + port + "/threadlocal/" + endpoint + "?userId=" + i))
+                        .timeout(LEAK_CHECK_TIMEOUT).build();
+                String body;
+                try {
+                    body = client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                            .get(LEAK_CHECK_TIMEOUT.toMillis() * 2, TimeUnit.MILLISECONDS).body();
+                } catch (ExecutionException | TimeoutException e) {
+                    log.warn("leak check request to {} failed, tomcat may have no spare worker thread", endpoint, e);
+                    result.put("error", endpoint + " request failed: " + e);
+                    return result;
+                }
+                if (!LEAK_FREE.matcher(body).find()) {
+                    leaked++;
+                }
+            }
+            result.put(endpoint, leaked);
+        }
+        log.info("leak check requests:{} leaked:{}", requests, result);
+        return result;
+    }
+
 }
@@ -0,0 +1,162 @@
+package com.sevenluo.java.error.code.chapter1.lock;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 13:20
+ * @description: 可插拔的计数器，用来替代 Data 中加锁的静态计数器，不同热点路径可以选择不同实现
+ */
+public interface Counter {
+
+    void increment();
+
+    /**
+     * 当前计数，批量实现中其他线程还没有 flush 的增量不包含在内
+     */
+    long sum();
+
+    /**
+     * 把当前线程本地累积的增量刷新到全局计数，线程结束一段计数工作后调用，非批量实现什么都不做
+     */
+    default void flush() {
+    }
+
+    /**
+     * 可选的实现名称，对应 synchronized/wrong?impl= 参数
+     */
+    List<String> IMPLS = Arrays.asList("atomic", "adder", "padded", "batched");
+
+    static Counter of(String impl) {
+        switch (impl) {
+            case "atomic":
+                return new AtomicLongCounter();
+            case "adder":
+                return new LongAdderCounter();
+            case "padded":
+                return new PaddedCellCounter(Runtime.getRuntime().availableProcessors());
+            case "batched":
+                return new ThreadLocalBatchedCounter(1024);
+            default:
+                throw new IllegalArgumentException("unknown counter impl: " + impl + ", expected one of " + IMPLS);
+        }
+    }
+}
+
+/**
+ * 所有线程 CAS 同一个 AtomicLong，竞争激烈时大量自旋重试
+ */
+class AtomicLongCounter implements Counter {
+    private final AtomicLong value = new AtomicLong();
+
+    @Override
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    @Override
+    public long sum() {
+        return value.get();
+    }
+}
+
+/**
+ * LongAdder 在竞争时把增量分散到多个 Cell 上，读取时再求和
+ */
+class LongAdderCounter implements Counter {
+    private final LongAdder value = new LongAdder();
+
+    @Override
+    public void increment() {
+        value.increment();
+    }
+
+    @Override
+    public long sum() {
+        return value.sum();
+    }
+}
+
+/**
+ * 按 CPU 数预先分配计数槽，每个槽独占一个缓存行避免伪共享。
+ * 线程第一次计数时轮流分配槽位，线程数不超过槽数时每个线程独占一个槽；CAS 失败说明仍然和其他线程共享，换到下一个槽
+ */
+class PaddedCellCounter implements Counter {
+    /**
+     * 每个槽之间间隔 8 个 long（64 字节）
+     */
+    private static final int STRIDE = 8;
+
+    private final int mask;
+    private final AtomicLongArray cells;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final ThreadLocal<int[]> index = ThreadLocal.withInitial(() -> new int[]{nextIndex.getAndIncrement()});
+
+    PaddedCellCounter(int concurrency) {
+        int size = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        this.mask = size - 1;
+        this.cells = new AtomicLongArray(size * STRIDE);
+    }
+
+    @Override
+    public void increment() {
+        int[] local = index.get();
+        int slot = (local[0] & mask) * STRIDE;
+        long current = cells.get(slot);
+        if (!cells.compareAndSet(slot, current, current + 1)) {
+            local[0]++;
+            cells.getAndIncrement((local[0] & mask) * STRIDE);
+        }
+    }
+
+    @Override
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i <= mask; i++) {
+            sum += cells.get(i * STRIDE);
+        }
+        return sum;
+    }
+}
+
+/**
+ * 每个线程先在本地累加，每 batchSize 次才刷新一次到全局计数，
+ * 线程调用 flush() 之前 sum() 最多落后 线程数 * batchSize，这是用准确性换吞吐量的取舍
+ */
+class ThreadLocalBatchedCounter implements Counter {
+    private final int batchSize;
+    private final AtomicLong value = new AtomicLong();
+    private final ThreadLocal<long[]> pending = ThreadLocal.withInitial(() -> new long[1]);
+
+    ThreadLocalBatchedCounter(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void increment() {
+        long[] local = pending.get();
+        if (++local[0] >= batchSize) {
+            value.addAndGet(local[0]);
+            local[0] = 0;
+        }
+    }
+
+    @Override
+    public void flush() {
+        long[] local = pending.get();
+        if (local[0] != 0) {
+            value.addAndGet(local[0]);
+            local[0] = 0;
+        }
+    }
+
+    @Override
+    public long sum() {
+        return value.get();
+    }
+}
@@ -0,0 +1,225 @@
+package com.sevenluo.java.error.code.chapter1.lock;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 09:30
+ * @description: 分段锁库存引擎，替代每个商品一把 ReentrantLock、按商品名排序后逐个加锁的下单方式
+ * 实现思路：
+ * 1. 商品按下标映射到固定数量的分段锁（item & (stripes - 1)），锁的数量和商品数量无关，10 万个商品也只需要最多 1024 把锁；
+ * 2. 下单时先把购物车合并成 (商品, 数量)，再按分段下标从小到大加锁，所有线程的加锁顺序一致，不会死锁，也不需要按商品名排序；
+ * 3. 持有购物车涉及的全部分段锁后先检查每个商品的库存，全部足够才一起扣减，任意一个不足整单失败（all-or-nothing），
+ *    其他订单看不到扣了一半的库存，也不会因为别人即将回滚的扣减而失败；
+ * 4. 库存计数放在 AtomicIntegerArray 中并按缓存行间隔开，修改都在分段锁内进行，读取库存不需要加锁。
+ */
+public class InventoryStore {
+
+    /**
+     * 每个计数器之间间隔 16 个 int（64 字节，一个缓存行）
+     */
+    private static final int STRIDE = 16;
+    private static final int MAX_STRIPES = 1024;
+
+    private final int itemCount;
+    private final AtomicIntegerArray remaining;
+    private final ReentrantLock[] stripes;
+
+    public InventoryStore(int itemCount, int initialRemaining) {
+        if (itemCount <= 0 || initialRemaining < 0) {
+            throw new IllegalArgumentException("itemCount must be positive and initialRemaining must not be negative");
+        }
+        this.itemCount = itemCount;
+        this.remaining = new AtomicIntegerArray(itemCount * STRIDE);
+        for (int i = 0; i < itemCount; i++) {
+            remaining.set(i * STRIDE, initialRemaining);
+        }
+        int stripeCount = Math.min(MAX_STRIPES, Integer.highestOneBit(itemCount - 1) << 1);
+        this.stripes = new ReentrantLock[Math.max(1, stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public int size() {
+        return itemCount;
+    }
+
+    public int remaining(int item) {
+        return remaining.get(slot(item));
+    }
+
+    /**
+     * 所有商品的剩余库存之和，不加锁，并发下单时只是近似值
+     */
+    public long totalRemaining() {
+        long total = 0;
+        for (int i = 0; i < itemCount; i++) {
+            total += remaining.get(i * STRIDE);
+        }
+        return total;
+    }
+
+    /**
+     * 对购物车中的商品各扣减一件库存，购物车中同一商品可以出现多次
+     * @param cart 商品下标
+     * @return 全部扣减成功返回 true，任意商品库存不足返回 false 且不改变任何库存
+     */
+    public boolean tryDecrement(int[] cart) {
+        //合并重复商品，得到每个商品需要扣减的数量
+        int[] items = cart.clone();
+        Arrays.sort(items);
+        int distinct = 0;
+        int[] quantities = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            slot(items[i]);
+            if (distinct > 0 && items[distinct - 1] == items[i]) {
+                quantities[distinct - 1]++;
+            } else {
+                items[distinct] = items[i];
+                quantities[distinct] = 1;
+                distinct++;
+            }
+        }
+        int[] locked = lockStripes(items, distinct);
+        try {
+            for (int i = 0; i < distinct; i++) {
+                if (remaining.get(slot(items[i])) < quantities[i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < distinct; i++) {
+                int slot = slot(items[i]);
+                remaining.set(slot, remaining.get(slot) - quantities[i]);
+            }
+            return true;
+        } finally {
+            unlockStripes(locked);
+        }
+    }
+
+    /**
+     * 批量提交一组订单：一次锁住这批订单涉及的全部分段，在本地副本上按顺序逐单判断和扣减，
+     * 最后每个商品只写回一次汇总后的库存，结果和逐单调用 tryDecrement 相同
+     * @return 每个订单是否扣减成功，和 carts 的顺序一致
+     */
+    public boolean[] tryDecrementAll(List<int[]> carts) {
+        int total = 0;
+        for (int[] cart : carts) {
+            total += cart.length;
+        }
+        int[] items = new int[total];
+        int index = 0;
+        for (int[] cart : carts) {
+            for (int item : cart) {
+                slot(item);
+                items[index++] = item;
+            }
+        }
+        Arrays.sort(items);
+        int distinct = 0;
+        for (int i = 0; i < total; i++) {
+            if (distinct == 0 || items[distinct - 1] != items[i]) {
+                items[distinct++] = items[i];
+            }
+        }
+        boolean[] results = new boolean[carts.size()];
+        int[] locked = lockStripes(items, distinct);
+        try {
+            int[] local = new int[distinct];
+            for (int i = 0; i < distinct; i++) {
+                local[i] = remaining.get(slot(items[i]));
+            }
+            for (int c = 0; c < carts.size(); c++) {
+                int[] positions = carts.get(c).clone();
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = Arrays.binarySearch(items, 0, distinct, positions[i]);
+                }
+                //同一个商品在购物车里出现多次时，逐件扣减后任何一件变成负数都说明库存不足
+                boolean enough = true;
+                for (int position : positions) {
+                    enough &= --local[position] >= 0;
+                }
+                if (!enough) {
+                    for (int position : positions) {
+                        local[position]++;
+                    }
+                }
+                results[c] = enough;
+            }
+            for (int i = 0; i < distinct; i++) {
+                remaining.set(slot(items[i]), local[i]);
+            }
+        } finally {
+            unlockStripes(locked);
+        }
+        return results;
+    }
+
+    /**
+     * 扣减单个商品的库存，库存不足时返回 false
+     */
+    public boolean tryDecrement(int item, int quantity) {
+        int slot = slot(item);
+        ReentrantLock lock = stripes[stripe(item)];
+        lock.lock();
+        try {
+            int current = remaining.get(slot);
+            if (current < quantity) {
+                return false;
+            }
+            remaining.set(slot, current - quantity);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按分段下标从小到大锁住 items 前 distinct 个商品所在的分段
+     * @return 已经加锁的分段下标
+     */
+    int[] lockStripes(int[] items, int distinct) {
+        int[] locked = new int[distinct];
+        for (int i = 0; i < distinct; i++) {
+            locked[i] = stripe(items[i]);
+        }
+        Arrays.sort(locked);
+        int count = 0;
+        for (int i = 0; i < distinct; i++) {
+            if (count == 0 || locked[count - 1] != locked[i]) {
+                locked[count++] = locked[i];
+            }
+        }
+        locked = Arrays.copyOf(locked, count);
+        for (int stripe : locked) {
+            stripes[stripe].lock();
+        }
+        return locked;
+    }
+
+    void unlockStripes(int[] locked) {
+        for (int i = locked.length - 1; i >= 0; i--) {
+            stripes[locked[i]].unlock();
+        }
+    }
+
+    int stripe(int item) {
+        return item & (stripes.length - 1);
+    }
+
+    private int slot(int item) {
+        if (item < 0 || item >= itemCount) {
+            throw new IndexOutOfBoundsException("item " + item + " out of range [0," + itemCount + ")");
+        }
+        return item * STRIDE;
+    }
+
+    @Override
+    public String toString() {
+        return "InventoryStore(items=" + itemCount + ", stripes=" + stripes.length + ", totalRemaining=" + totalRemaining() + ")";
+    }
+}
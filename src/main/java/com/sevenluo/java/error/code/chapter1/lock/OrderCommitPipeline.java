@@ -0,0 +1,172 @@
+package com.sevenluo.java.error.code.chapter1.lock;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 11:05
+ * @description: 批量提交下单（group commit），多个下单线程把订单放入有界队列，每个分片由一个提交线程批量扣减库存
+ * 实现思路：
+ * 1. 商品按 InventoryStore 的分段再分成 shards 个分片，订单按购物车中最小商品所在的分片路由到对应的有界队列（多生产者单消费者）；
+ * 2. 每个分片的提交线程一次取出最多 batchSize 个订单，调用 InventoryStore.tryDecrementAll：一批订单涉及的分段锁只加一次，
+ *    逐单判断库存后每个商品只写回一次汇总的扣减量，再完成每个调用方的 CompletableFuture；
+ * 3. 只包含同一分片商品的订单都由同一个提交线程处理，跨分片的购物车仍然靠分段锁保证整单原子性，会和其他分片的提交线程竞争；
+ * 4. 队列满时最多等待 OFFER_TIMEOUT_MILLIS，超时或者管道已经关闭时订单以 RejectedExecutionException 结束，close() 会让所有未处理的订单失败。
+ */
+@Slf4j
+public class OrderCommitPipeline implements AutoCloseable {
+
+    private static final long OFFER_TIMEOUT_MILLIS = 1000;
+
+    private final InventoryStore store;
+    private final int batchSize;
+    private final List<BlockingQueue<PendingOrder>> queues = new ArrayList<>();
+    private final List<Thread> appliers = new ArrayList<>();
+    private final LongAdder orders = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private volatile boolean closed;
+
+    public OrderCommitPipeline(InventoryStore store, int shards, int batchSize, int queueCapacity) {
+        if (shards <= 0 || batchSize <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("shards, batchSize and queueCapacity must be positive");
+        }
+        this.store = store;
+        this.batchSize = batchSize;
+        for (int i = 0; i < shards; i++) {
+            BlockingQueue<PendingOrder> queue = new ArrayBlockingQueue<>(queueCapacity);
+            queues.add(queue);
+            Thread applier = new Thread(() -> apply(queue), "order-commit-" + i);
+            applier.setDaemon(true);
+            appliers.add(applier);
+            applier.start();
+        }
+    }
+
+    /**
+     * 提交一个订单，队列满时最多等待 1 秒
+     * @param cart 商品下标，空购物车直接成功
+     * @return 扣减成功为 true，库存不足为 false；队列满或者管道已关闭时以 RejectedExecutionException 结束
+     */
+    public CompletableFuture<Boolean> createOrder(int[] cart) {
+        PendingOrder order = new PendingOrder(cart);
+        if (cart.length == 0) {
+            order.future.complete(true);
+            return order.future;
+        }
+        if (closed) {
+            order.future.completeExceptionally(new RejectedExecutionException("pipeline closed"));
+            return order.future;
+        }
+        BlockingQueue<PendingOrder> queue = queues.get(shard(cart));
+        try {
+            if (!queue.offer(order, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                order.future.completeExceptionally(new RejectedExecutionException("order queue is full"));
+                return order.future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            order.future.completeExceptionally(e);
+            return order.future;
+        }
+        //入队之后管道才关闭的话提交线程可能已经退出，自己把订单取回来结束掉；取不回来说明已经被处理或者被 close() 清理
+        if (closed && queue.remove(order)) {
+            order.future.completeExceptionally(new RejectedExecutionException("pipeline closed"));
+        }
+        return order.future;
+    }
+
+    private int shard(int[] cart) {
+        int min = cart[0];
+        for (int item : cart) {
+            min = Math.min(min, item);
+        }
+        return Math.floorMod(store.stripe(min), queues.size());
+    }
+
+    private void apply(BlockingQueue<PendingOrder> queue) {
+        List<PendingOrder> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                //close() 时中断，继续把剩余订单处理完
+                continue;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            commit(batch);
+            orders.add(batch.size());
+            batches.increment();
+            batch.clear();
+        }
+    }
+
+    private void commit(List<PendingOrder> batch) {
+        boolean[] results;
+        try {
+            results = store.tryDecrementAll(batch.stream().map(order -> order.cart).collect(Collectors.toList()));
+        } catch (RuntimeException ex) {
+            //有非法商品下标时整批无法提交，逐单执行，只让出错的订单失败
+            for (PendingOrder order : batch) {
+                try {
+                    order.future.complete(store.tryDecrement(order.cart));
+                } catch (RuntimeException orderEx) {
+                    order.future.completeExceptionally(orderEx);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future.complete(results[i]);
+        }
+    }
+
+    /**
+     * 平均每批提交的订单数，越大说明分段锁的加锁次数减少得越多
+     */
+    public double averageBatchSize() {
+        long count = batches.sum();
+        return count == 0 ? 0 : (double) orders.sum() / count;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        appliers.forEach(Thread::interrupt);
+        for (Thread applier : appliers) {
+            try {
+                applier.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        //提交线程退出之后才入队的订单
+        for (BlockingQueue<PendingOrder> queue : queues) {
+            PendingOrder order;
+            while ((order = queue.poll()) != null) {
+                order.future.completeExceptionally(new RejectedExecutionException("pipeline closed"));
+            }
+        }
+        log.info("order commit pipeline closed, orders:{} batches:{} averageBatchSize:{}",
+                orders.sum(), batches.sum(), averageBatchSize());
+    }
+
+    private static class PendingOrder {
+        final int[] cart;
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        PendingOrder(int[] cart) {
+            this.cart = cart;
+        }
+    }
+}
@@ -4,12 +4,15 @@ import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
@@ -28,13 +31,54 @@ public class SynchronizedTest {
 
 
     @GetMapping("wrong")
-    public int wrong(@RequestParam(value = "count", defaultValue = "1000000") int count) {
+    public Object wrong(@RequestParam(value = "count", defaultValue = "1000000") int count,
+                        @RequestParam(value = "impl", required = false) String impl) {
+        if (impl != null) {
+            return counter(count, impl);
+        }
         Data.reset();
         //多线程循环一定次数调用Data类不同实例的wrong方法
         IntStream.rangeClosed(1, count).parallel().forEach(i -> new Data().wrong());
         return Data.getCounter();
     }
 
+    /**
+     * 用指定的 Counter 实现跑同样的并行累加，impl=all 时依次测试所有实现。
+     * 累加拆成若干段并行执行，每段结束时 flush 一次，批量实现的 sum 也是准确的
+     * @return 每个实现的每秒操作数和最终准确率，impl 不存在时返回 400 和可选的实现
+     */
+    private Object counter(int count, String impl) {
+        if (!"all".equals(impl) && !Counter.IMPLS.contains(impl)) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("error", "unknown counter impl: " + impl);
+            error.put("impls", Counter.IMPLS);
+            return ResponseEntity.badRequest().body(error);
+        }
+        List<String> impls = "all".equals(impl) ? Counter.IMPLS : Collections.singletonList(impl);
+        int chunks = ForkJoinPool.getCommonPoolParallelism() * 4;
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        for (String name : impls) {
+            Counter counter = Counter.of(name);
+            long begin = System.nanoTime();
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                for (int i = chunk; i < count; i += chunks) {
+                    counter.increment();
+                }
+                counter.flush();
+            });
+            long took = Math.max(1, System.nanoTime() - begin);
+            long sum = counter.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("sum", sum);
+            stats.put("accuracy", (double) sum / count);
+            stats.put("opsPerSecond", count * TimeUnit.SECONDS.toNanos(1) / took);
+            stats.put("tookMs", TimeUnit.NANOSECONDS.toMillis(took));
+            result.put(name, stats);
+        }
+        log.info("counter:{}", result);
+        return result;
+    }
+
 
 
     private List<Integer> data = new ArrayList<>();
@@ -98,6 +142,14 @@ public class SynchronizedTest {
      * @return
      */
     private boolean createOrder(List<Item> order) {
+        return createOrder(order, false);
+    }
+
+    /**
+     * @param checkStock 为 true 时任意商品库存不足整单失败，和 InventoryStore 的语义一致，用于和 InventoryStore 做公平的压测对比；
+     *                   deadlock/wrong 和 deadlock/right 保持原来的行为，拿到锁就扣减
+     */
+    private boolean createOrder(List<Item> order, boolean checkStock) {
         //存放所有获得的锁
         List<ReentrantLock> locks = new ArrayList<>();
 
@@ -115,6 +167,13 @@ public class SynchronizedTest {
         }
         //锁全部拿到之后执行扣减库存业务逻辑
         try {
+            if (checkStock) {
+                for (Item item : order) {
+                    if (item.remaining < order.stream().filter(other -> other == item).count()) {
+                        return false;
+                    }
+                }
+            }
             order.forEach(item -> item.remaining--);
         } finally {
             locks.forEach(ReentrantLock::unlock);
@@ -161,6 +220,115 @@ public class SynchronizedTest {
         return success;
     }
 
+    /**
+     * 与 items 对应的分段锁库存，商品 itemN 对应下标 N
+     */
+    private InventoryStore inventoryStore = new InventoryStore(items.size(), 1000);
+
+    /**
+     * 使用 InventoryStore 下单，调用方不需要自己排序和加锁：InventoryStore 按分段下标排序后依次获取分段 ReentrantLock，
+     * 库存全部足够才一起扣减
+     * @return
+     */
+    @GetMapping("deadlock/store")
+    public long deadlockStore() {
+        long begin = System.currentTimeMillis();
+        //并发进行100次下单操作，统计成功次数
+        long success = IntStream.rangeClosed(1, 100).parallel()
+                .mapToObj(__ -> inventoryStore.tryDecrement(createCartIndexes(inventoryStore.size())))
+                .filter(result -> result)
+                .count();
+        log.info("success:{} totalRemaining:{} took:{}ms store:{}",
+                success,
+                inventoryStore.totalRemaining(),
+                System.currentTimeMillis() - begin, inventoryStore);
+        return success;
+    }
+
+    /**
+     * 基于 inventoryStore 的批量提交管道，4 个分片，每批最多 64 个订单
+     */
+    private OrderCommitPipeline orderCommitPipeline = new OrderCommitPipeline(inventoryStore, 4, 64, 1024);
+
+    /**
+     * 应用关闭时停止分片提交线程，还没处理的订单以异常结束
+     */
+    @PreDestroy
+    public void closeOrderCommitPipeline() {
+        orderCommitPipeline.close();
+    }
+
+    /**
+     * 订单先进入队列，由分片提交线程批量扣减库存，调用方等待自己的下单结果
+     * @return
+     */
+    @GetMapping("deadlock/batch")
+    public long deadlockBatch() {
+        long begin = System.currentTimeMillis();
+        //并发进行100次下单操作，统计成功次数
+        long success = IntStream.rangeClosed(1, 100).parallel()
+                .mapToObj(__ -> orderCommitPipeline.createOrder(createCartIndexes(inventoryStore.size())).join())
+                .filter(result -> result)
+                .count();
+        log.info("success:{} totalRemaining:{} took:{}ms averageBatchSize:{} store:{}",
+                success,
+                inventoryStore.totalRemaining(),
+                System.currentTimeMillis() - begin, orderCommitPipeline.averageBatchSize(), inventoryStore);
+        return success;
+    }
+
+    /**
+     * 对比排序加锁、InventoryStore 和批量提交三种下单方式在不同商品数量、不同线程数下的吞吐量（单/秒）
+     * @param orders 每组测试的下单次数
+     * @return
+     */
+    @GetMapping("deadlock/benchmark")
+    public Map<String, Long> deadlockBenchmark(@RequestParam(value = "orders", defaultValue = "200000") int orders) throws InterruptedException {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int itemCount : new int[]{1000, 100000}) {
+            for (int threads : new int[]{8, 16, 32, 64}) {
+                Map<String, Item> lockItems = IntStream.range(0, itemCount).mapToObj(i -> new Item("item" + i))
+                        .collect(Collectors.toMap(Item::getName, i -> i));
+                InventoryStore store = new InventoryStore(itemCount, 1000);
+                String suffix = ":items=" + itemCount + ",threads=" + threads;
+                result.put("orderedLock" + suffix, throughput(threads, orders, () -> {
+                    List<Item> cart = IntStream.of(createCartIndexes(itemCount))
+                            .mapToObj(i -> lockItems.get("item" + i))
+                            .sorted(Comparator.comparing(Item::getName)).collect(Collectors.toList());
+                    createOrder(cart, true);
+                }));
+                result.put("inventoryStore" + suffix, throughput(threads, orders,
+                        () -> store.tryDecrement(createCartIndexes(itemCount))));
+                InventoryStore batchStore = new InventoryStore(itemCount, 1000);
+                try (OrderCommitPipeline pipeline = new OrderCommitPipeline(batchStore, 4, 64, 1024)) {
+                    result.put("batchPipeline" + suffix, throughput(threads, orders,
+                            () -> pipeline.createOrder(createCartIndexes(itemCount)).join()));
+                }
+            }
+        }
+        log.info("deadlock benchmark:{}", result);
+        return result;
+    }
+
+    /**
+     * 模拟创建购物车，随机选择 3 个商品的下标
+     */
+    private int[] createCartIndexes(int itemCount) {
+        return ThreadLocalRandom.current().ints(3, 0, itemCount).toArray();
+    }
+
+    /**
+     * 使用指定线程数并发执行 orders 次下单，返回每秒下单数
+     */
+    private long throughput(int threads, int orders, Runnable order) throws InterruptedException {
+        ForkJoinPool forkJoinPool = new ForkJoinPool(threads);
+        long begin = System.nanoTime();
+        forkJoinPool.execute(() -> IntStream.rangeClosed(1, orders).parallel().forEach(__ -> order.run()));
+        forkJoinPool.shutdown();
+        forkJoinPool.awaitTermination(1, TimeUnit.HOURS);
+        return orders * TimeUnit.SECONDS.toNanos(1) / Math.max(1, System.nanoTime() - begin);
+    }
+
 }
 
 
@@ -0,0 +1,151 @@
+package com.sevenluo.java.error.code.chapter1.threadpool;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 11:10
+ * @description: 批量写文件的后台负载，用来复现线程池混用的问题：不断往目标线程池提交写 1MB 文件的任务
+ * target 为线程池名（比如 batchfileprocess）时提交到 ExecutorRegistry 中的普通线程池，
+ * 为 lane:<name> 时提交到对应分道线程池的 BATCH 通道。
+ * 目标线程池拒绝任务时计数并退避 REJECT_BACKOFF_MILLIS 后继续提交，负载不会因为一次拒绝就悄悄停掉。
+ */
+@Slf4j
+@Component
+public class BatchLoadGenerator {
+
+    private final ExecutorRegistry executorRegistry;
+
+    @Value("${threadpool.batch-load.enabled:false}")
+    private boolean enabled;
+
+    @Value("${threadpool.batch-load.target:batchfileprocess}")
+    private String target;
+
+    @Value("${threadpool.batch-load.payload-size:1000000}")
+    private int payloadSize;
+
+    @Value("${threadpool.batch-load.interval-millis:0}")
+    private long intervalMillis;
+
+    private static final long REJECT_BACKOFF_MILLIS = 100;
+    private static final long REJECT_WARN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private volatile Thread generator;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public BatchLoadGenerator(ExecutorRegistry executorRegistry) {
+        this.executorRegistry = executorRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            start(target);
+        }
+    }
+
+    public synchronized void start(String target) {
+        stop();
+        Executor executor = executor(target);
+        //模拟需要写入的大量数据
+        String payload = IntStream.rangeClosed(1, payloadSize)
+                .mapToObj(__ -> "a")
+                .collect(Collectors.joining(""));
+        Thread thread = new Thread(() -> {
+            long lastWarnNanos = System.nanoTime() - REJECT_WARN_INTERVAL_NANOS;
+            while (!Thread.currentThread().isInterrupted()) {
+                long sleepMillis = intervalMillis;
+                try {
+                    executor.execute(() -> {
+                        try {
+                            //每次都是创建并写入相同的数据到相同的文件
+                            Files.write(Paths.get("demo.txt"), Collections.singletonList(LocalTime.now().toString() + ":" + payload), UTF_8, CREATE, TRUNCATE_EXISTING);
+                        } catch (IOException e) {
+                            log.error("batch file processing failed", e);
+                        }
+                        log.debug("batch file processing done");
+                    });
+                    submitted.increment();
+                } catch (RejectedExecutionException e) {
+                    rejected.increment();
+                    //退避后线程池往往已经空出位置，拒绝和成功交替出现，日志每秒最多打一次
+                    long now = System.nanoTime();
+                    if (now - lastWarnNanos >= REJECT_WARN_INTERVAL_NANOS) {
+                        log.warn("batch load rejected by {}, backing off {}ms, rejected {} times so far: {}", target, REJECT_BACKOFF_MILLIS, rejected.sum(), e.getMessage());
+                        lastWarnNanos = now;
+                    }
+                    sleepMillis = Math.max(sleepMillis, REJECT_BACKOFF_MILLIS);
+                }
+                if (sleepMillis > 0) {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(sleepMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "batch-load-generator");
+        thread.setDaemon(true);
+        thread.start();
+        generator = thread;
+        this.target = target;
+        log.info("batch load generator started, target:{}", target);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (generator != null) {
+            generator.interrupt();
+            generator = null;
+            log.info("batch load generator stopped, target:{}", target);
+        }
+    }
+
+    public boolean isRunning() {
+        return generator != null;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", isRunning());
+        stats.put("target", target);
+        stats.put("submitted", submitted.sum());
+        stats.put("rejected", rejected.sum());
+        return stats;
+    }
+
+    private Executor executor(String target) {
+        if (target.startsWith("lane:")) {
+            return executorRegistry.getLaneExecutor(target.substring("lane:".length())).lane(LaneExecutor.Lane.BATCH);
+        }
+        return executorRegistry.get(target);
+    }
+}
@@ -0,0 +1,227 @@
+package com.sevenluo.java.error.code.chapter1.threadpool;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 16:00
+ * @description: 合并写文件的组件，替代每个任务都 Files.write 重写整个文件
+ * 实现思路：
+ * 1. 生产者把已经编码好的 ByteBuffer 交给有界队列，不拷贝数据（多个任务写相同内容时可以共享同一个只读 buffer 的 duplicate()）；
+ * 2. 唯一的写线程一次取走队列里所有记录（最多 maxBatch 条），用 FileChannel 的 gathering write 一次系统调用写出一批；
+ * 3. fsync 策略：NEVER 交给操作系统刷盘，EVERY_BATCH 每批 force 一次，INTERVAL 距离上次 force 超过 fsyncInterval 才 force；
+ * 4. 预分配（默认关闭）：Java 没有 fallocate，写到已分配区域末尾时一次性补写 preallocateBytes 个 0，避免每次追加都修改文件大小等元数据，
+ *    close 时截断到实际写入的长度；补写 0 会多写同样多的字节，单独计入 preallocateWrites，不算在 writeCalls 里；
+ * 5. writeCalls、fsyncCalls、fileCalls（open/truncate/close）统计实际发起的调用次数，syscallsPerRecord 是三者之和除以记录数，
+ *    close() 之后再读取 stats() 才包含关闭时的 force 和 close。
+ */
+@Slf4j
+public class CoalescingFileWriter implements AutoCloseable {
+
+    public enum FsyncPolicy {
+        NEVER, EVERY_BATCH, INTERVAL
+    }
+
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(1 << 20);
+
+    private final FileChannel channel;
+    private final BlockingQueue<Record> queue;
+    private final int maxBatch;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final long preallocateBytes;
+    private final Thread writer;
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder writeCalls = new LongAdder();
+    private final LongAdder fsyncCalls = new LongAdder();
+    private final LongAdder fileCalls = new LongAdder();
+    private final LongAdder preallocateWrites = new LongAdder();
+    private final LongAdder preallocatedBytes = new LongAdder();
+
+    private volatile boolean closed;
+    private long position;
+    private long allocated;
+    private long lastFsyncNanos = System.nanoTime();
+
+    public CoalescingFileWriter(Path file, int queueCapacity, int maxBatch, FsyncPolicy fsyncPolicy,
+                                long fsyncInterval, TimeUnit unit, long preallocateBytes) throws IOException {
+        if (queueCapacity <= 0 || maxBatch <= 0 || preallocateBytes < 0) {
+            throw new IllegalArgumentException("queueCapacity and maxBatch must be positive, preallocateBytes must not be negative");
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        fileCalls.increment();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatch = maxBatch;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = unit.toNanos(fsyncInterval);
+        this.preallocateBytes = preallocateBytes;
+        this.writer = new Thread(this::writeLoop, "coalescing-writer-" + file.getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 提交一条记录，队列满时阻塞（背压），返回的 future 在记录写出（并按 fsync 策略刷盘）后完成
+     * 提交后调用方不能再修改 buffer 的内容和 position
+     */
+    public CompletableFuture<Void> write(ByteBuffer buffer) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("writer is closed");
+        }
+        Record record = new Record(buffer);
+        queue.put(record);
+        //入队之后才关闭的话写线程和 close() 的清理可能都已经结束，自己把记录取回来结束掉
+        if (closed && queue.remove(record)) {
+            record.future.completeExceptionally(new IllegalStateException("writer is closed"));
+        }
+        return record.future;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long recordCount = records.sum();
+        stats.put("records", recordCount);
+        stats.put("bytes", bytes.sum());
+        stats.put("batches", batches.sum());
+        stats.put("avgBatchSize", batches.sum() == 0 ? 0 : (double) recordCount / batches.sum());
+        stats.put("writeCalls", writeCalls.sum());
+        stats.put("fsyncCalls", fsyncCalls.sum());
+        stats.put("fileCalls", fileCalls.sum());
+        stats.put("syscallsPerRecord", recordCount == 0 ? 0 : (double) (writeCalls.sum() + fsyncCalls.sum() + fileCalls.sum()) / recordCount);
+        stats.put("preallocateWrites", preallocateWrites.sum());
+        stats.put("preallocatedBytes", preallocatedBytes.sum());
+        return stats;
+    }
+
+    /**
+     * 停止接收新记录，写完队列中剩余的记录后刷盘、截掉预分配多出来的部分并关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        //FileChannel 是可中断的通道，中断写线程会直接关闭文件，所以用一个结束标记通知写线程退出
+        try {
+            queue.put(Record.CLOSE);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.force(false);
+            fsyncCalls.increment();
+            channel.truncate(position);
+            fileCalls.increment();
+        } finally {
+            channel.close();
+            fileCalls.increment();
+            //和 close 并发提交、排在结束标记之后的记录不会再被写出
+            Record record;
+            while ((record = queue.poll()) != null) {
+                record.future.completeExceptionally(new IllegalStateException("writer is closed"));
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(maxBatch);
+        boolean closing = false;
+        while (!closing) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, maxBatch - batch.size());
+            int end = batch.indexOf(Record.CLOSE);
+            if (end >= 0) {
+                closing = true;
+                List<Record> rejected = batch.subList(end, batch.size());
+                rejected.forEach(record -> record.future.completeExceptionally(new IllegalStateException("writer is closed")));
+                rejected.clear();
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Record> batch) {
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long length = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = batch.get(i).buffer;
+            length += buffers[i].remaining();
+        }
+        try {
+            preallocate(position + length);
+            channel.position(position);
+            long written = 0;
+            while (written < length) {
+                //一次 gathering write 最多写 IOV_MAX 个 buffer，写不完继续
+                written += channel.write(buffers);
+                writeCalls.increment();
+            }
+            position += length;
+            if (fsyncPolicy == FsyncPolicy.EVERY_BATCH
+                    || (fsyncPolicy == FsyncPolicy.INTERVAL && System.nanoTime() - lastFsyncNanos >= fsyncIntervalNanos)) {
+                channel.force(false);
+                fsyncCalls.increment();
+                lastFsyncNanos = System.nanoTime();
+            }
+            records.add(batch.size());
+            bytes.add(length);
+            batches.increment();
+            batch.forEach(record -> record.future.complete(null));
+        } catch (IOException e) {
+            log.error("coalescing writer failed to write {} records", batch.size(), e);
+            batch.forEach(record -> record.future.completeExceptionally(e));
+        }
+    }
+
+    private void preallocate(long required) throws IOException {
+        if (preallocateBytes == 0) {
+            return;
+        }
+        while (allocated < required) {
+            long end = allocated + preallocateBytes;
+            while (allocated < end) {
+                ByteBuffer zeros = ZEROS.duplicate();
+                zeros.limit((int) Math.min(zeros.capacity(), end - allocated));
+                int zeroed = channel.write(zeros, allocated);
+                allocated += zeroed;
+                preallocateWrites.increment();
+                preallocatedBytes.add(zeroed);
+            }
+        }
+    }
+
+    private static class Record {
+        private static final Record CLOSE = new Record(ByteBuffer.allocate(0));
+
+        private final ByteBuffer buffer;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Record(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
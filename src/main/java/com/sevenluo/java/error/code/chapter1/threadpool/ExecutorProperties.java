@@ -0,0 +1,69 @@
+package com.sevenluo.java.error.code.chapter1.threadpool;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 21:30
+ * @description: 线程池配置，executors.pools.<name>.* 声明一个命名线程池，executors.lanes.<name>.* 声明一个分道线程池，
+ * executors.autoscale.* 是自动伸缩控制器的参数
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "executors")
+public class ExecutorProperties {
+
+    private Map<String, Pool> pools = new LinkedHashMap<>();
+
+    private Map<String, Lanes> lanes = new LinkedHashMap<>();
+
+    private Autoscale autoscale = new Autoscale();
+
+    @Data
+    public static class Pool {
+        private int coreSize = 1;
+        private int maxSize = 1;
+        private long keepAliveSeconds = 60;
+        private int queueCapacity = 100;
+        /**
+         * abort、caller-runs、discard、discard-oldest
+         */
+        private String rejectionPolicy = "abort";
+        /**
+         * 开启后由 PoolAutoscaler 在 [minSize, maxSize] 之间调整线程数，coreSize 作为初始大小
+         */
+        private boolean autoscale = false;
+        private int minSize = 1;
+    }
+
+    @Data
+    public static class Autoscale {
+        private long intervalMillis = 1000;
+        private long cooldownMillis = 5000;
+        /**
+         * 平均排队时间超过这个值认为线程不够
+         */
+        private long targetWaitMillis = 10;
+        private double targetUtilization = 0.8;
+    }
+
+    @Data
+    public static class Lanes {
+        private int workers = 2;
+        private int interactiveCapacity = 100;
+        private int batchCapacity = 100;
+        /**
+         * strict-priority、fair-share
+         */
+        private String policy = "strict-priority";
+        /**
+         * fair-share 时交互任务和批处理任务的调度比例 interactiveWeight:1
+         */
+        private int interactiveWeight = 4;
+    }
+}
@@ -0,0 +1,123 @@
+package com.sevenluo.java.error.code.chapter1.threadpool;
+
+import com.sevenluo.java.error.code.common.VirtualThreads;
+import jodd.util.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 21:40
+ * @description: 线程池注册中心，启动时根据 ExecutorProperties 创建所有命名线程池，业务代码按名字获取复用，不再自己 new 线程池
+ */
+@Slf4j
+@Component
+public class ExecutorRegistry {
+
+    private final Map<String, InstrumentedThreadPoolExecutor> executors = new LinkedHashMap<>();
+    private final Map<String, LaneExecutor> laneExecutors = new LinkedHashMap<>();
+
+    private final boolean virtualThreads;
+
+    private final PoolAutoscaler autoscaler;
+
+    public ExecutorRegistry(ExecutorProperties properties, @Value("${threads.mode:platform}") String threadsMode) {
+        this.virtualThreads = VirtualThreads.MODE_VIRTUAL.equals(threadsMode);
+        properties.getPools().forEach((name, pool) -> executors.put(name, create(name, pool)));
+        properties.getLanes().forEach((name, lanes) -> laneExecutors.put(name, create(name, lanes)));
+        ExecutorProperties.Autoscale autoscale = properties.getAutoscale();
+        autoscaler = new PoolAutoscaler("executors", autoscale.getIntervalMillis(), autoscale.getCooldownMillis(),
+                autoscale.getTargetWaitMillis(), TimeUnit.MILLISECONDS, autoscale.getTargetUtilization());
+        properties.getPools().forEach((name, pool) -> {
+            if (pool.isAutoscale()) {
+                autoscaler.register(executors.get(name), pool.getMinSize(), pool.getMaxSize());
+            }
+        });
+        autoscaler.start();
+        log.info("executor registry initialized:{} lanes:{} threads mode:{}", executors.keySet(), laneExecutors.keySet(), threadsMode);
+    }
+
+    public InstrumentedThreadPoolExecutor get(String name) {
+        InstrumentedThreadPoolExecutor executor = executors.get(name);
+        if (executor == null) {
+            throw new IllegalArgumentException("executor " + name + " is not declared, declared executors:" + executors.keySet());
+        }
+        return executor;
+    }
+
+    public LaneExecutor getLaneExecutor(String name) {
+        LaneExecutor executor = laneExecutors.get(name);
+        if (executor == null) {
+            throw new IllegalArgumentException("lane executor " + name + " is not declared, declared lane executors:" + laneExecutors.keySet());
+        }
+        return executor;
+    }
+
+    public Map<String, InstrumentedThreadPoolExecutor> getExecutors() {
+        return Collections.unmodifiableMap(executors);
+    }
+
+    /**
+     * 所有线程池的监控数据
+     */
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        executors.forEach((name, executor) -> stats.put(name, executor.stats()));
+        laneExecutors.forEach((name, executor) -> stats.put(name, executor.stats()));
+        stats.put("autoscaler", autoscaler.stats());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        autoscaler.close();
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+        laneExecutors.values().forEach(LaneExecutor::shutdown);
+    }
+
+    private InstrumentedThreadPoolExecutor create(String name, ExecutorProperties.Pool pool) {
+        return new InstrumentedThreadPoolExecutor(name,
+                //自动伸缩的线程池核心线程数和最大线程数保持一致，由控制器统一调整
+                pool.getCoreSize(), pool.isAutoscale() ? pool.getCoreSize() : pool.getMaxSize(),
+                pool.getKeepAliveSeconds(), TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(pool.getQueueCapacity()),
+                //虚拟线程模式下线程池只用来限制并发数和排队，线程本身不再是稀缺资源
+                virtualThreads ? VirtualThreads.threadFactory(name + "-virtual-")
+                        : new ThreadFactoryBuilder().withNameFormat(name + "-threadpool-%d").get(),
+                rejectionPolicy(pool.getRejectionPolicy()));
+    }
+
+    private LaneExecutor create(String name, ExecutorProperties.Lanes lanes) {
+        return new LaneExecutor(name, lanes.getWorkers(),
+                lanes.getInteractiveCapacity(), lanes.getBatchCapacity(),
+                LaneExecutor.Policy.valueOf(lanes.getPolicy().toUpperCase().replace('-', '_')),
+                lanes.getInteractiveWeight(),
+                virtualThreads ? VirtualThreads.threadFactory(name + "-virtual-")
+                        : new ThreadFactoryBuilder().withNameFormat(name + "-lane-%d").withDaemon(true).get());
+    }
+
+    private static RejectedExecutionHandler rejectionPolicy(String policy) {
+        switch (policy) {
+            case "caller-runs":
+                return new ThreadPoolExecutor.CallerRunsPolicy();
+            case "discard":
+                return new ThreadPoolExecutor.DiscardPolicy();
+            case "discard-oldest":
+                return new ThreadPoolExecutor.DiscardOldestPolicy();
+            case "abort":
+                return new ThreadPoolExecutor.AbortPolicy();
+            default:
+                throw new IllegalArgumentException("unknown rejection policy:" + policy);
+        }
+    }
+}
@@ -1,61 +1,247 @@
 package com.sevenluo.java.error.code.chapter1.threadpool;
 
+import jodd.util.ThreadFactoryBuilder;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author: sevenluo
  * @date: 2022/04/19 07:45
  * @description: 自定义激进线程池，功能：当没有达到最大线程数时，先创建线程到最大线程数，然后再加入队列中排队
  * 实现思路：
- * 1. 重写LinkedBlockingQueue的 offer 方法，使其返回 false；
- * 2. 然后再线程池的RejectedExecutionHandler策略处理逻辑中将任务加入队列排队
+ * 1. submittedCount 记录已提交但还没执行完的任务数，小于等于当前线程数说明有空闲线程，任务直接交给空闲线程；
+ *    被 shutdownNow()、remove()、purge() 移出队列、不会再执行的任务同样从 submittedCount 中减掉；
+ * 2. 没有空闲线程并且线程数没有达到最大线程数时，队列的 offer 返回 false，让线程池创建新线程；
+ *    当前线程数由线程工厂包装的 workerCount 原子计数（线程开始运行时加一、退出时减一），不调用需要 mainLock 的 getPoolSize()；
+ * 3. 线程数已经达到最大值时任务进入有界队列排队，队列基于无锁的 LinkedTransferQueue，有等待中的线程时直接 tryTransfer 移交；
+ * 4. 队列也满了则抛出 RejectedExecutionException（或者 trySubmit 返回 false），由调用方决定降级或重试，而不是阻塞在 put() 上。
  */
-public class ExtremeThreadPoolExecutor {
-
-    public ExtremeThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,int blockQueueSize) {
-        // 扩展LinkedBlockingQueue，强制offer()有条件地返回false
-        BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>(blockQueueSize) {
-            private static final long serialVersionUID = -6903933921423432194L;
-            @Override
-            public boolean offer(Runnable e) {
-                // Offer it to the queue if there is 0 items already queued, else
-                // return false so the TPE will add another thread. If we return false
-                // and max threads have been reached then the RejectedExecutionHandler
-                // will be called which will do the put into the queue.
-                if (size() == 0) {
-                    return super.offer(e);
-                } else {
+public class ExtremeThreadPoolExecutor extends InstrumentedThreadPoolExecutor {
+
+    private final AtomicInteger submittedCount = new AtomicInteger();
+    private final AtomicInteger workerCount;
+
+    public ExtremeThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, int blockQueueSize) {
+        this("extreme", corePoolSize, maximumPoolSize, keepAliveTime, unit, blockQueueSize);
+    }
+
+    public ExtremeThreadPoolExecutor(String name, int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, int blockQueueSize) {
+        this(name, corePoolSize, maximumPoolSize, keepAliveTime, unit, blockQueueSize, new AtomicInteger());
+    }
+
+    private ExtremeThreadPoolExecutor(String name, int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, int blockQueueSize,
+                                      AtomicInteger workerCount) {
+        super(name, corePoolSize, maximumPoolSize, keepAliveTime, unit, new EagerQueue(blockQueueSize),
+                countingThreadFactory(new ThreadFactoryBuilder().withNameFormat(name + "-threadpool-%d").get(), workerCount),
+                (r, executor) -> ((ExtremeThreadPoolExecutor) executor).reject(r));
+        this.workerCount = workerCount;
+        ((EagerQueue) getQueue()).executor = this;
+    }
+
+    /**
+     * 线程真正开始运行时才计数，线程池创建了线程但没能启动（比如正在关闭）时不会多算
+     */
+    private static ThreadFactory countingThreadFactory(ThreadFactory delegate, AtomicInteger workerCount) {
+        return r -> delegate.newThread(() -> {
+            workerCount.incrementAndGet();
+            try {
+                r.run();
+            } finally {
+                workerCount.decrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submittedCount.incrementAndGet();
+        try {
+            super.execute(command);
+        } catch (RejectedExecutionException ex) {
+            submittedCount.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * 提交任务，线程数和队列都满了时返回 false 而不是抛出异常
+     */
+    public boolean trySubmit(Runnable command) {
+        try {
+            execute(command);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        submittedCount.decrementAndGet();
+    }
+
+    /**
+     * 队列中还没执行的任务不会再执行，从 submittedCount 中减掉
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = super.shutdownNow();
+        submittedCount.addAndGet(-tasks.size());
+        return tasks;
+    }
+
+    /**
+     * purge() 也通过这个方法移除已经取消的任务
+     */
+    @Override
+    public boolean remove(Runnable task) {
+        if (super.remove(task)) {
+            submittedCount.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public int getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    /**
+     * 正在运行的工作线程数，无锁读取
+     */
+    public int getWorkerCount() {
+        return workerCount.get();
+    }
+
+    /**
+     * 达到最大线程数时的入队也会经过拒绝策略，只有队列也满了、真正抛出异常的任务才计入 rejectedTasks
+     */
+    @Override
+    protected void onRejected(Runnable r, RejectedExecutionHandler handler) {
+        try {
+            handler.rejectedExecution(r, this);
+        } catch (RejectedExecutionException ex) {
+            recordRejected();
+            throw ex;
+        }
+    }
+
+    /**
+     * 线程池创建线程失败（已经达到最大线程数）时再尝试放入队列，队列满了才真正拒绝
+     */
+    private void reject(Runnable r) {
+        if (isShutdown() || !((EagerQueue) getQueue()).enqueue(r)) {
+            throw new RejectedExecutionException("Task " + r + " rejected from " + this);
+        }
+    }
+
+    /**
+     * 有界的 LinkedTransferQueue，线程数没有达到最大值时拒绝入队，促使线程池先扩容
+     */
+    private static class EagerQueue extends LinkedTransferQueue<Runnable> {
+        private static final long serialVersionUID = -6903933921423432194L;
+
+        private final int capacity;
+        private final AtomicInteger count = new AtomicInteger();
+        private transient volatile ExtremeThreadPoolExecutor executor;
+
+        EagerQueue(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public boolean offer(Runnable r) {
+            ExtremeThreadPoolExecutor parent = executor;
+            //有空闲线程等待任务时直接移交，移交的任务同样计数，被取走时统一减一
+            count.incrementAndGet();
+            if (tryTransfer(r)) {
+                return true;
+            }
+            count.decrementAndGet();
+            if (parent != null) {
+                int workers = parent.getWorkerCount();
+                if (workers < parent.getMaximumPoolSize() && parent.getSubmittedCount() > workers) {
                     return false;
                 }
             }
-        };
-        RejectedExecutionHandler rejectedExecutionHandler = new RejectedExecutionHandler() {
-            @Override
-            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-                try {
-                    //这是实际放入队列的地方，如果最大线程数满了则放入队列，队列满了则排队等待
-                    executor.getQueue().put(r);
-                    // 也可以使用 offer 方法，如果队列满了则直接丢弃，而不是排队
-                    // boolean offer = executor.getQueue().offer(r, 10, TimeUnit.MILLISECONDS);
-                    // if (!offer) {
-                    //     throw new RejectedExecutionException("Task " + r +
-                    //             " rejected from " + executor);
-                    // }
-                    // 如果线程池已经关闭，则抛出异常
-                    if (executor.isShutdown()) {
-                        throw new RejectedExecutionException(
-                                "Task " + r + " rejected from " + executor);
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    return;
-                }
+            return enqueue(r);
+        }
+
+        boolean enqueue(Runnable r) {
+            if (count.incrementAndGet() > capacity) {
+                count.decrementAndGet();
+                return false;
             }
-        };
-        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(1 /*core*/, 50 /*max*/,
-                60 /*secs*/, TimeUnit.SECONDS, queue,Executors.defaultThreadFactory(),rejectedExecutionHandler);
+            return super.offer(r);
+        }
 
-    }
+        @Override
+        public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+            return taken(super.poll(timeout, unit));
+        }
+
+        @Override
+        public Runnable poll() {
+            return taken(super.poll());
+        }
+
+        @Override
+        public Runnable take() throws InterruptedException {
+            return taken(super.take());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            boolean removed = super.remove(o);
+            if (removed) {
+                count.decrementAndGet();
+            }
+            return removed;
+        }
+
+        /**
+         * shutdownNow() 通过 drainTo 取出剩余任务，逐个 poll 保证计数同步减少
+         */
+        @Override
+        public int drainTo(Collection<? super Runnable> c) {
+            return drainTo(c, Integer.MAX_VALUE);
+        }
 
+        @Override
+        public int drainTo(Collection<? super Runnable> c, int maxElements) {
+            Objects.requireNonNull(c);
+            if (c == this) {
+                throw new IllegalArgumentException();
+            }
+            int n = 0;
+            Runnable r;
+            while (n < maxElements && (r = poll()) != null) {
+                c.add(r);
+                n++;
+            }
+            return n;
+        }
+
+        @Override
+        public int size() {
+            return Math.max(0, count.get());
+        }
 
+        @Override
+        public int remainingCapacity() {
+            return Math.max(0, capacity - count.get());
+        }
+
+        private Runnable taken(Runnable r) {
+            if (r != null) {
+                count.decrementAndGet();
+            }
+            return r;
+        }
+    }
 }
@@ -0,0 +1,170 @@
+package com.sevenluo.java.error.code.chapter1.threadpool;
+
+import com.sevenluo.java.error.code.common.LatencyHistogram;
+import com.sevenluo.java.error.code.common.RequestScope;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 21:20
+ * @description: 带监控的线程池，通过 beforeExecute/afterExecute 钩子统计任务排队时间和执行时间
+ * 1. execute 时记录提交时间，beforeExecute 时计算排队时间，afterExecute 时计算执行时间；
+ * 2. 提交的任务会带上提交线程的 RequestScope；
+ * 3. 队列里放的是包装后的任务，shutdownNow()、remove()、purge() 按调用方提交的原始任务处理，和普通线程池的语义一致。
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+
+    private final String name;
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram executionTime = new LatencyHistogram();
+    private final LongAdder rejected = new LongAdder();
+
+    public InstrumentedThreadPoolExecutor(String name, int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                          BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                          RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        this.name = name;
+        //包一层拒绝策略，统计被拒绝的任务数
+        setRejectedExecutionHandler((r, executor) -> onRejected(r, handler));
+    }
+
+    /**
+     * 线程池无法接收任务时调用，默认每次调用都计为一次拒绝（抛出异常、丢弃或者由调用线程执行），
+     * 拒绝策略里还可能把任务放回队列的子类需要覆盖这个方法，只统计真正没有被接收的任务
+     */
+    protected void onRejected(Runnable r, RejectedExecutionHandler handler) {
+        rejected.increment();
+        handler.rejectedExecution(r, this);
+    }
+
+    protected void recordRejected() {
+        rejected.increment();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        super.execute(new TimedTask(command));
+    }
+
+    /**
+     * 返回调用方提交的原始任务，而不是内部的包装
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = super.shutdownNow();
+        tasks.replaceAll(InstrumentedThreadPoolExecutor::unwrap);
+        return tasks;
+    }
+
+    /**
+     * 按原始任务查找队列中对应的包装再移除
+     */
+    @Override
+    public boolean remove(Runnable task) {
+        for (Runnable queued : getQueue()) {
+            if (queued == task || unwrap(queued) == task) {
+                return super.remove(queued);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 队列中是包装后的任务，父类的 purge 认不出已经取消的 Future，这里按原始任务判断
+     */
+    @Override
+    public void purge() {
+        for (Runnable queued : getQueue()) {
+            Runnable original = unwrap(queued);
+            if (original instanceof Future && ((Future<?>) original).isCancelled()) {
+                remove(original);
+            }
+        }
+        super.purge();
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if (r instanceof TimedTask) {
+            TimedTask task = (TimedTask) r;
+            task.startNanos = System.nanoTime();
+            waitTime.record(task.startNanos - task.submitNanos);
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        if (r instanceof TimedTask) {
+            executionTime.record(System.nanoTime() - ((TimedTask) r).startNanos);
+        }
+        super.afterExecute(r, t);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    public LatencyHistogram getExecutionTime() {
+        return executionTime;
+    }
+
+    /**
+     * 线程池当前状态，所有数据都是直接读取计数器，可以频繁调用
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("poolSize", getPoolSize());
+        stats.put("corePoolSize", getCorePoolSize());
+        stats.put("maximumPoolSize", getMaximumPoolSize());
+        stats.put("activeThreads", getActiveCount());
+        stats.put("queueSize", getQueue().size());
+        stats.put("queueRemainingCapacity", getQueue().remainingCapacity());
+        stats.put("completedTasks", getCompletedTaskCount());
+        stats.put("rejectedTasks", rejected.sum());
+        stats.put("waitTime", waitTime.snapshot());
+        stats.put("executionTime", executionTime.snapshot());
+        return stats;
+    }
+
+    private static Runnable unwrap(Runnable task) {
+        return task instanceof TimedTask ? ((TimedTask) task).original : task;
+    }
+
+    /**
+     * 记录提交时间和开始执行时间的任务包装
+     */
+    private static class TimedTask implements Runnable {
+        private final Runnable original;
+        private final Runnable delegate;
+        private final long submitNanos = System.nanoTime();
+        private long startNanos;
+
+        TimedTask(Runnable original) {
+            this.original = original;
+            this.delegate = RequestScope.wrap(original);
+        }
+
+        @Override
+        public void run() {
+            delegate.run();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.sevenluo.java.error.code.chapter1.threadpool;
+
+import com.sevenluo.java.error.code.common.LatencyHistogram;
+import com.sevenluo.java.error.code.common.RequestScope;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 10:30
+ * @description: 按任务类型分道的线程池，交互任务和批处理任务各自有有界队列，共享一组工作线程
+ * 实现思路：
+ * 1. 每个 Lane 一个有界队列，信号量的许可数等于所有队列中的任务总数，工作线程拿到许可后按调度策略选择队列取任务；
+ * 2. STRICT_PRIORITY：只要交互队列有任务就先执行交互任务；FAIR_SHARE：按 interactiveWeight:1 的比例轮流，批处理任务不会被饿死；
+ * 3. 队列满时由提交线程自己执行（和原来的 CallerRunsPolicy 一致），起到限流作用；
+ * 4. 每个 Lane 分别统计排队时间和执行时间；
+ * 5. shutdown() 不再执行队列中剩下的任务，通过 submit() 提交的任务会被取消，调用方的 get() 不会一直阻塞。
+ */
+@Slf4j
+public class LaneExecutor {
+
+    public enum Lane {
+        INTERACTIVE, BATCH
+    }
+
+    public enum Policy {
+        STRICT_PRIORITY, FAIR_SHARE
+    }
+
+    private final String name;
+    private final Policy policy;
+    private final int interactiveWeight;
+    private final List<BlockingQueue<LaneTask>> queues = new ArrayList<>();
+    private final List<LatencyHistogram> waitTimes = new ArrayList<>();
+    private final List<LatencyHistogram> executionTimes = new ArrayList<>();
+    private final List<LongAdder> callerRuns = new ArrayList<>();
+    private final Semaphore available = new Semaphore(0);
+    private final AtomicLong ticket = new AtomicLong();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public LaneExecutor(String name, int workerCount, int interactiveCapacity, int batchCapacity, Policy policy,
+                        int interactiveWeight, ThreadFactory threadFactory) {
+        if (workerCount <= 0 || interactiveWeight <= 0) {
+            throw new IllegalArgumentException("workerCount and interactiveWeight must be positive");
+        }
+        this.name = name;
+        this.policy = policy;
+        this.interactiveWeight = interactiveWeight;
+        for (Lane lane : Lane.values()) {
+            queues.add(new ArrayBlockingQueue<>(lane == Lane.INTERACTIVE ? interactiveCapacity : batchCapacity));
+            waitTimes.add(new LatencyHistogram());
+            executionTimes.add(new LatencyHistogram());
+            callerRuns.add(new LongAdder());
+        }
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = threadFactory.newThread(this::work);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    public void execute(Lane lane, Runnable command) {
+        if (!running) {
+            throw new RejectedExecutionException("lane executor " + name + " is shut down");
+        }
+        LaneTask task = new LaneTask(lane, command);
+        BlockingQueue<LaneTask> queue = queues.get(lane.ordinal());
+        if (queue.offer(task)) {
+            available.release();
+            //入队之后才关闭的话 shutdown() 可能已经清理过队列，自己取回来取消掉
+            if (!running && queue.remove(task)) {
+                cancel(task);
+            }
+        } else {
+            //队列满了，由提交线程执行
+            callerRuns.get(lane.ordinal()).increment();
+            run(task);
+        }
+    }
+
+    public <T> Future<T> submit(Lane lane, Callable<T> callable) {
+        FutureTask<T> future = new FutureTask<>(callable);
+        execute(lane, future);
+        return future;
+    }
+
+    /**
+     * 某个 Lane 的 Executor 视图，方便交给只接收 Executor 的代码使用
+     */
+    public Executor lane(Lane lane) {
+        return command -> execute(lane, command);
+    }
+
+    /**
+     * 停止工作线程，队列中还没有执行的任务不再执行
+     * @return 没有执行的任务数，其中 submit() 提交的任务已经被取消
+     */
+    public int shutdown() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+        int dropped = 0;
+        for (BlockingQueue<LaneTask> queue : queues) {
+            LaneTask task;
+            while ((task = queue.poll()) != null) {
+                cancel(task);
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.warn("lane executor {} shut down, {} queued tasks not executed", name, dropped);
+        }
+        return dropped;
+    }
+
+    private void cancel(LaneTask task) {
+        if (task.original instanceof Future) {
+            ((Future<?>) task.original).cancel(false);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("policy", policy);
+        stats.put("workers", workers.size());
+        for (Lane lane : Lane.values()) {
+            Map<String, Object> laneStats = new LinkedHashMap<>();
+            laneStats.put("queueSize", queues.get(lane.ordinal()).size());
+            laneStats.put("callerRuns", callerRuns.get(lane.ordinal()).sum());
+            laneStats.put("waitTime", waitTimes.get(lane.ordinal()).snapshot());
+            laneStats.put("executionTime", executionTimes.get(lane.ordinal()).snapshot());
+            stats.put(lane.name().toLowerCase(), laneStats);
+        }
+        return stats;
+    }
+
+    private void work() {
+        while (running) {
+            try {
+                available.acquire();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            LaneTask task = next();
+            if (task == null) {
+                continue;
+            }
+            waitTimes.get(task.lane.ordinal()).record(System.nanoTime() - task.submitNanos);
+            run(task);
+        }
+    }
+
+    /**
+     * 拿到许可后至少有一个队列中有任务，按调度策略决定先看哪个队列；shutdown() 清空队列之后返回 null
+     */
+    private LaneTask next() {
+        BlockingQueue<LaneTask> interactive = queues.get(Lane.INTERACTIVE.ordinal());
+        BlockingQueue<LaneTask> batch = queues.get(Lane.BATCH.ordinal());
+        boolean interactiveFirst = policy == Policy.STRICT_PRIORITY
+                || ticket.getAndIncrement() % (interactiveWeight + 1) < interactiveWeight;
+        while (true) {
+            LaneTask task = interactiveFirst ? interactive.poll() : batch.poll();
+            if (task == null) {
+                task = interactiveFirst ? batch.poll() : interactive.poll();
+            }
+            if (task != null || !running) {
+                return task;
+            }
+            //许可数和任务数一一对应，正常不会走到这里，保险起见自旋重试
+            Thread.onSpinWait();
+        }
+    }
+
+    private void run(LaneTask task) {
+        long start = System.nanoTime();
+        try {
+            task.command.run();
+        } catch (Throwable t) {
+            log.error("lane executor {} task failed", name, t);
+        } finally {
+            executionTimes.get(task.lane.ordinal()).record(System.nanoTime() - start);
+        }
+    }
+
+    private static class LaneTask {
+        private final Lane lane;
+        private final Runnable original;
+        private final Runnable command;
+        private final long submitNanos = System.nanoTime();
+
+        LaneTask(Lane lane, Runnable original) {
+            this.lane = lane;
+            this.original = original;
+            this.command = RequestScope.wrap(original);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.sevenluo.java.error.code.chapter1.threadpool;
+
+import jodd.util.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 14:00
+ * @description: 线程池自动伸缩控制器，定时采样 InstrumentedThreadPoolExecutor 的排队时间、执行时间和吞吐量，在运行时调整线程数
+ * 实现思路：
+ * 1. 利特尔法则：需要的线程数 = 到达速率 × 平均执行时间 / 目标利用率，排队时间超过 targetWait 时至少再加一个线程；
+ * 2. 爬山校验：扩容后排队依然存在但吞吐量没有明显提升（CPU 密集型任务线程数超过核数就是这样），说明已经到达瓶颈，回退到扩容前的大小，
+ *    并在一段时间内不再超过这个大小；
+ * 3. 线程数限制在 [minSize, maxSize] 之间，单次最多翻倍或减半，两次调整之间至少间隔 cooldown，避免来回抖动；
+ * 4. 每次调整都会打日志，最近的调整记录通过 stats() 暴露。
+ */
+@Slf4j
+public class PoolAutoscaler implements AutoCloseable {
+
+    /**
+     * 扩容后吞吐量至少提升 5% 才认为扩容有效
+     */
+    private static final double MIN_GAIN = 1.05;
+    /**
+     * 到达瓶颈后多少个采样周期内不再超过瓶颈大小，之后重新试探
+     */
+    private static final int CEILING_SAMPLES = 20;
+    private static final int MAX_DECISIONS = 50;
+
+    private final String name;
+    private final long intervalNanos;
+    private final long cooldownNanos;
+    private final long targetWaitNanos;
+    private final double targetUtilization;
+    private final Map<String, Target> targets = new ConcurrentHashMap<>();
+    private final Deque<Decision> decisions = new ArrayDeque<>();
+    private final ScheduledExecutorService scheduler;
+
+    public PoolAutoscaler(String name, long interval, long cooldown, long targetWait, TimeUnit unit, double targetUtilization) {
+        if (interval <= 0 || cooldown < 0 || targetWait <= 0 || targetUtilization <= 0 || targetUtilization > 1) {
+            throw new IllegalArgumentException("interval and targetWait must be positive, targetUtilization must be in (0, 1]");
+        }
+        this.name = name;
+        this.intervalNanos = unit.toNanos(interval);
+        this.cooldownNanos = unit.toNanos(cooldown);
+        this.targetWaitNanos = unit.toNanos(targetWait);
+        this.targetUtilization = targetUtilization;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().withNameFormat(name + "-autoscaler-%d").withDaemon(true).get());
+    }
+
+    /**
+     * 把线程池交给控制器管理，核心线程数和最大线程数会被调整为相同的值
+     */
+    public void register(InstrumentedThreadPoolExecutor executor, int minSize, int maxSize) {
+        if (minSize <= 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("require 0 < minSize <= maxSize");
+        }
+        targets.put(executor.getName(), new Target(executor, minSize, maxSize));
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::sampleAll, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    public List<Decision> getDecisions() {
+        synchronized (decisions) {
+            return new ArrayList<>(decisions);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        targets.forEach((pool, target) -> {
+            Map<String, Object> state = new LinkedHashMap<>();
+            state.put("size", target.executor.getCorePoolSize());
+            state.put("minSize", target.minSize);
+            state.put("maxSize", target.maxSize);
+            state.put("ceiling", target.ceiling);
+            state.put("lastThroughput", target.lastThroughput);
+            stats.put(pool, state);
+        });
+        stats.put("decisions", getDecisions());
+        return stats;
+    }
+
+    private void sampleAll() {
+        for (Target target : targets.values()) {
+            try {
+                sample(target);
+            } catch (Exception ex) {
+                log.warn("autoscaler {} failed to sample {}", name, target.executor.getName(), ex);
+            }
+        }
+    }
+
+    private void sample(Target target) {
+        InstrumentedThreadPoolExecutor executor = target.executor;
+        long now = System.nanoTime();
+        long completed = executor.getCompletedTaskCount();
+        long waitCount = executor.getWaitTime().getCount();
+        long waitNanos = executor.getWaitTime().getTotalNanos();
+        long execCount = executor.getExecutionTime().getCount();
+        long execNanos = executor.getExecutionTime().getTotalNanos();
+        int backlog = executor.getQueue().size() + executor.getActiveCount();
+
+        double seconds = (now - target.sampledNanos) / 1e9;
+        long completedDelta = completed - target.completed;
+        double throughput = completedDelta / seconds;
+        double arrivalRate = Math.max(0, (completedDelta + backlog - target.backlog) / seconds);
+        long meanWait = waitCount > target.waitCount ? (waitNanos - target.waitNanos) / (waitCount - target.waitCount) : 0;
+        long meanExec = execCount > target.execCount ? (execNanos - target.execNanos) / (execCount - target.execCount) : target.meanExec;
+
+        target.sampledNanos = now;
+        target.completed = completed;
+        target.waitCount = waitCount;
+        target.waitNanos = waitNanos;
+        target.execCount = execCount;
+        target.execNanos = execNanos;
+        target.backlog = backlog;
+        target.meanExec = meanExec;
+        target.lastThroughput = throughput;
+        if (target.ceilingSamples > 0 && --target.ceilingSamples == 0) {
+            target.ceiling = target.maxSize;
+        }
+        if (now - target.resizedNanos < cooldownNanos) {
+            return;
+        }
+
+        int size = executor.getCorePoolSize();
+        boolean queueing = meanWait > targetWaitNanos;
+        int wanted;
+        String reason;
+        if (target.lastDirection > 0 && queueing && throughput < target.throughputBeforeResize * MIN_GAIN) {
+            //扩容没有带来吞吐量提升，线程已经不是瓶颈，回退并记住这个上限
+            wanted = target.sizeBeforeResize;
+            target.ceiling = wanted;
+            target.ceilingSamples = CEILING_SAMPLES;
+            reason = "plateau";
+        } else {
+            wanted = (int) Math.ceil(arrivalRate * meanExec / 1e9 / targetUtilization);
+            reason = "little's law";
+            if (queueing && wanted <= size) {
+                wanted = size + 1;
+                reason = "queueing";
+            }
+            if (completedDelta == 0 && backlog == 0) {
+                reason = "idle";
+            }
+        }
+        wanted = Math.max(size / 2, Math.min(size * 2, wanted));
+        wanted = Math.max(target.minSize, Math.min(Math.min(target.maxSize, target.ceiling), wanted));
+        target.lastDirection = 0;
+        if (wanted == size) {
+            return;
+        }
+        resize(executor, wanted);
+        target.lastDirection = Integer.compare(wanted, size);
+        target.sizeBeforeResize = size;
+        target.throughputBeforeResize = throughput;
+        target.resizedNanos = now;
+        record(new Decision(System.currentTimeMillis(), executor.getName(), size, wanted, reason,
+                throughput, arrivalRate, meanWait / 1e6, meanExec / 1e6));
+    }
+
+    /**
+     * 扩容时先调大最大线程数，缩容时先调小核心线程数，保证任何时刻 core <= max
+     */
+    private static void resize(InstrumentedThreadPoolExecutor executor, int size) {
+        if (size > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+
+    private void record(Decision decision) {
+        log.info("autoscaler {} resized {} from {} to {} ({}), throughput:{}/s arrival:{}/s wait:{}ms exec:{}ms",
+                name, decision.pool, decision.from, decision.to, decision.reason,
+                Math.round(decision.throughput), Math.round(decision.arrivalRate),
+                String.format("%.2f", decision.meanWaitMs), String.format("%.2f", decision.meanExecMs));
+        synchronized (decisions) {
+            decisions.addLast(decision);
+            if (decisions.size() > MAX_DECISIONS) {
+                decisions.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * 一次线程数调整记录
+     */
+    public static class Decision {
+        public final long timestamp;
+        public final String pool;
+        public final int from;
+        public final int to;
+        public final String reason;
+        public final double throughput;
+        public final double arrivalRate;
+        public final double meanWaitMs;
+        public final double meanExecMs;
+
+        Decision(long timestamp, String pool, int from, int to, String reason,
+                 double throughput, double arrivalRate, double meanWaitMs, double meanExecMs) {
+            this.timestamp = timestamp;
+            this.pool = pool;
+            this.from = from;
+            this.to = to;
+            this.reason = reason;
+            this.throughput = throughput;
+            this.arrivalRate = arrivalRate;
+            this.meanWaitMs = meanWaitMs;
+            this.meanExecMs = meanExecMs;
+        }
+
+        @Override
+        public String toString() {
+            return pool + " " + from + "->" + to + " (" + reason + ")";
+        }
+    }
+
+    /**
+     * 被管理的线程池和上一次采样的计数器
+     */
+    private static class Target {
+        private final InstrumentedThreadPoolExecutor executor;
+        private final int minSize;
+        private final int maxSize;
+        private volatile int ceiling;
+        private int ceilingSamples;
+        private long sampledNanos = System.nanoTime();
+        private long completed;
+        private long waitCount;
+        private long waitNanos;
+        private long execCount;
+        private long execNanos;
+        private long meanExec;
+        private int backlog;
+        private volatile double lastThroughput;
+        private long resizedNanos = sampledNanos;
+        private int lastDirection;
+        private int sizeBeforeResize;
+        private double throughputBeforeResize;
+
+        Target(InstrumentedThreadPoolExecutor executor, int minSize, int maxSize) {
+            this.executor = executor;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.ceiling = maxSize;
+            this.completed = executor.getCompletedTaskCount();
+            this.waitCount = executor.getWaitTime().getCount();
+            this.waitNanos = executor.getWaitTime().getTotalNanos();
+            this.execCount = executor.getExecutionTime().getCount();
+            this.execNanos = executor.getExecutionTime().getTotalNanos();
+        }
+    }
+}
@@ -1,19 +1,34 @@
 package com.sevenluo.java.error.code.chapter1.threadpool;
 
 import jodd.util.ThreadFactoryBuilder;
+import com.sevenluo.java.error.code.common.LatencyHistogram;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import javax.annotation.PostConstruct;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -53,7 +68,7 @@ public class ThreadPoolTest {
         // 线程池在空闲时回收核心线程
         threadPool.allowCoreThreadTimeOut(true);
 
-        printStats(threadPool);
+        ScheduledFuture<?> stats = printStats(threadPool);
         //每隔1秒提交一次，一共提交20次任务
         IntStream.rangeClosed(1, 20).forEach(i -> {
             try {
@@ -80,6 +95,9 @@ public class ThreadPoolTest {
         });
 
         TimeUnit.SECONDS.sleep(60);
+        //演示结束，停止打印并关闭这个临时线程池
+        stats.cancel(false);
+        threadPool.shutdown();
         return atomicInteger.intValue();
     }
 
@@ -102,40 +120,35 @@ public class ThreadPoolTest {
         return "OK";
     }
 
+    /**
+     * 复用 application.properties 中声明的 demo 线程池（executors.pools.demo.*），由 ExecutorRegistry 创建，PoolAutoscaler 根据负载调整线程数
+     */
+    @GetMapping("reuse")
+    public String reuse() {
+        ThreadPoolExecutor threadPool = executorRegistry.get("demo");
+        IntStream.rangeClosed(1, 10).forEach(i -> {
+            threadPool.execute(() -> {
+                try {
+                    TimeUnit.SECONDS.sleep(1);
+                } catch (InterruptedException e) {
+                }
+            });
+        });
+        return "OK";
+    }
+
     /**
      * ==============线程池混用导致的异常====================
+     * batchfileprocess 线程池（2/2/100，CallerRunsPolicy）在 application.properties 中声明，由 ExecutorRegistry 创建
      */
-    private static ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
-            2, 2,
-            1, TimeUnit.HOURS,
-            new ArrayBlockingQueue<>(100),
-            new ThreadFactoryBuilder().withNameFormat("batchfileprocess-threadpool-%d").get(),
-            new ThreadPoolExecutor.CallerRunsPolicy());
-
-
-    // @PostConstruct
-    // public void init() {
-    //     printStats(threadPool);
-    //
-    //     new Thread(() -> {
-    //         //模拟需要写入的大量数据
-    //         String payload = IntStream.rangeClosed(1, 1_000_000)
-    //                 .mapToObj(__ -> "a")
-    //                 .collect(Collectors.joining(""));
-    //         while (true) {
-    //             threadPool.execute(() -> {
-    //                 try {
-    //                     //每次都是创建并写入相同的数据到相同的文件
-    //                     Files.write(Paths.get("demo.txt"), Collections.singletonList(LocalTime.now().toString() + ":" + payload), UTF_8, CREATE, TRUNCATE_EXISTING);
-    //                 } catch (IOException e) {
-    //                     e.printStackTrace();
-    //                 }
-    //                 log.info("batch file processing done");
-    //             });
-    //         }
-    //     }).start();
-    // }
+    @Autowired
+    private ExecutorRegistry executorRegistry;
 
+    /**
+     * 原来写在 init() 中的批量写文件负载，通过 threadpool.batch-load.* 配置或者 batchload/start 接口启动
+     */
+    @Autowired
+    private BatchLoadGenerator batchLoadGenerator;
 
     private Callable<Integer> calcTask() {
         return () -> {
@@ -146,16 +159,260 @@ public class ThreadPoolTest {
 
     @GetMapping("/threadpoolmixuse/wrong")
     public int wrongFixedThreadPool() throws ExecutionException, InterruptedException {
-        return threadPool.submit(calcTask()).get();
+        return executorRegistry.get("batchfileprocess").submit(calcTask()).get();
+    }
+
+    /**
+     * 计算任务走分道线程池的 INTERACTIVE 通道，即使批处理任务把 BATCH 通道塞满也不用排在它们后面
+     */
+    @GetMapping("/threadpoolmixuse/lane")
+    public int laneThreadPool() throws ExecutionException, InterruptedException {
+        return executorRegistry.getLaneExecutor("mixuse").submit(LaneExecutor.Lane.INTERACTIVE, calcTask()).get();
     }
 
+    /**
+     * 启动批量写文件负载，target 为 batchfileprocess（和 threadpoolmixuse/wrong 共用）或者 lane:mixuse（分道线程池的 BATCH 通道）
+     */
+    @GetMapping("batchload/start")
+    public String startBatchLoad(@RequestParam(value = "target", defaultValue = "batchfileprocess") String target) {
+        batchLoadGenerator.start(target);
+        return "OK";
+    }
 
+    @GetMapping("batchload/stop")
+    public String stopBatchLoad() {
+        batchLoadGenerator.stop();
+        return "OK";
+    }
 
+    /**
+     * 批量负载已经提交和被目标线程池拒绝的任务数
+     */
+    @GetMapping("batchload/stats")
+    public Map<String, Object> batchLoadStats() {
+        return batchLoadGenerator.stats();
+    }
 
+    /**
+     * 所有命名线程池的队列长度、活跃线程数、排队时间和执行时间，可以每秒轮询
+     */
+    @GetMapping("stats")
+    public Map<String, Map<String, Object>> stats() {
+        return executorRegistry.stats();
+    }
 
+    /**
+     * 验证 PoolAutoscaler：初始 2 个线程的线程池依次承受 sleep（IO 密集）、cpu（CPU 密集）、mixed（各一半）三个阶段的恒定速率负载，
+     * 每个阶段统计从提交到完成的耗时和阶段结束时的线程数，IO 密集阶段线程数应该按利特尔法则增长，CPU 密集阶段不应该超过核数太多
+     */
+    @GetMapping("autoscale/simulate")
+    public Map<String, Object> autoscaleSimulate(@RequestParam(value = "rate", defaultValue = "200") int rate,
+                                                 @RequestParam(value = "seconds", defaultValue = "10") int seconds,
+                                                 @RequestParam(value = "sleepMillis", defaultValue = "20") int sleepMillis,
+                                                 @RequestParam(value = "cpuMillis", defaultValue = "2") int cpuMillis,
+                                                 @RequestParam(value = "maxSize", defaultValue = "100") int maxSize) throws InterruptedException {
+        InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor("autoscale-sim", 2, 2, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(100_000), new ThreadFactoryBuilder().withNameFormat("autoscale-sim-%d").get(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        Map<String, Object> result = new LinkedHashMap<>();
+        try (PoolAutoscaler autoscaler = new PoolAutoscaler("simulate", 500, 1000, 10, TimeUnit.MILLISECONDS, 0.8)) {
+            autoscaler.register(executor, 1, maxSize);
+            autoscaler.start();
+            for (String phase : new String[]{"sleep", "cpu", "mixed"}) {
+                LatencyHistogram latency = new LatencyHistogram();
+                long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+                long start = System.nanoTime();
+                long end = start + TimeUnit.SECONDS.toNanos(seconds);
+                for (long i = 0; ; i++) {
+                    long next = start + i * periodNanos;
+                    if (next >= end) {
+                        break;
+                    }
+                    LockSupport.parkNanos(next - System.nanoTime());
+                    boolean cpu = "cpu".equals(phase) || ("mixed".equals(phase) && i % 2 == 0);
+                    long submitted = System.nanoTime();
+                    executor.execute(() -> {
+                        if (cpu) {
+                            burnCpu(TimeUnit.MILLISECONDS.toNanos(cpuMillis));
+                        } else {
+                            try {
+                                TimeUnit.MILLISECONDS.sleep(sleepMillis);
+                            } catch (InterruptedException e) {
+                            }
+                        }
+                        latency.record(System.nanoTime() - submitted);
+                    });
+                }
+                Map<String, Object> stats = new LinkedHashMap<>(latency.snapshot());
+                stats.put("poolSize", executor.getCorePoolSize());
+                stats.put("queueSize", executor.getQueue().size());
+                result.put(phase, stats);
+            }
+            result.put("decisions", autoscaler.getDecisions());
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("autoscale simulate:{}", result);
+        return result;
+    }
 
-    private void printStats(ThreadPoolExecutor threadPool) {
-        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
+    /**
+     * 消耗指定的 CPU 时间（而不是墙上时间），线程数超过核数时任务的执行时间会被拉长，和真实的 CPU 密集型任务一致
+     */
+    private static void burnCpu(long cpuNanos) {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        long start = threadMXBean.getCurrentThreadCpuTime();
+        long x = 0;
+        while (threadMXBean.getCurrentThreadCpuTime() - start < cpuNanos) {
+            for (int i = 0; i < 1000; i++) {
+                x += i * 31L ^ x;
+            }
+        }
+        if (x == 42) {
+            log.debug("unlikely");
+        }
+    }
+
+    /**
+     * 对比激进线程池和相同参数的标准线程池在突发 IO 任务下的延迟：
+     * 每轮瞬间提交 burst 个耗时 10 毫秒的任务，统计从提交到执行完成的耗时分布，被拒绝的任务单独计数
+     */
+    @GetMapping("extreme/benchmark")
+    public Map<String, Object> extremeBenchmark(@RequestParam(value = "burst", defaultValue = "200") int burst,
+                                                @RequestParam(value = "rounds", defaultValue = "5") int rounds,
+                                                @RequestParam(value = "core", defaultValue = "2") int core,
+                                                @RequestParam(value = "max", defaultValue = "50") int max,
+                                                @RequestParam(value = "queue", defaultValue = "1000") int queue) throws InterruptedException {
+        Map<String, Object> result = new LinkedHashMap<>();
+        ThreadPoolExecutor standard = new ThreadPoolExecutor(core, max, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue), new ThreadFactoryBuilder().withNameFormat("standard-threadpool-%d").get());
+        result.put("standard", burstLatency(standard, burst, rounds));
+        standard.shutdown();
+        ExtremeThreadPoolExecutor extreme = new ExtremeThreadPoolExecutor(core, max, 60, TimeUnit.SECONDS, queue);
+        result.put("extreme", burstLatency(extreme, burst, rounds));
+        extreme.shutdown();
+        log.info("extreme benchmark:{}", result);
+        return result;
+    }
+
+    private Map<String, Object> burstLatency(ThreadPoolExecutor executor, int burst, int rounds) throws InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicInteger rejected = new AtomicInteger();
+        for (int round = 0; round < rounds; round++) {
+            CountDownLatch latch = new CountDownLatch(burst);
+            for (int i = 0; i < burst; i++) {
+                long submitted = System.nanoTime();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(10);
+                        } catch (InterruptedException e) {
+                        }
+                        latency.record(System.nanoTime() - submitted);
+                        latch.countDown();
+                    });
+                } catch (RejectedExecutionException ex) {
+                    rejected.incrementAndGet();
+                    latch.countDown();
+                }
+            }
+            latch.await();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>(latency.snapshot());
+        stats.put("rejected", rejected.get());
+        stats.put("largestPoolSize", executor.getLargestPoolSize());
+        return stats;
+    }
+
+    /**
+     * 对比批量写文件的两种方式，threads 个线程一共写 records 条 recordSize 字节的记录，两边的系统调用次数都是实际计数（open + write + fsync + close）：
+     * files：和原来的 init() 一样每个任务拼接字符串、编码后重写 demo.txt，和 Files.write 相同的 BufferedWriter + Files.newOutputStream，
+     *        在 OutputStream 这一层统计 write 调用次数；
+     * coalescing：payload 只编码一次，每个任务提交共享 buffer 的 duplicate() 给 CoalescingFileWriter 追加写 demo-coalesced.txt，
+     *        关闭之后再读取统计；默认不预分配，预分配补写的 0 单独统计在 preallocateWrites 中
+     */
+    @GetMapping("filewriter/benchmark")
+    public Map<String, Object> fileWriterBenchmark(@RequestParam(value = "records", defaultValue = "200") int records,
+                                                   @RequestParam(value = "recordSize", defaultValue = "1000000") int recordSize,
+                                                   @RequestParam(value = "threads", defaultValue = "4") int threads,
+                                                   @RequestParam(value = "fsync", defaultValue = "never") String fsync,
+                                                   @RequestParam(value = "preallocateMb", defaultValue = "0") int preallocateMb) throws Exception {
+        String payload = IntStream.rangeClosed(1, recordSize).mapToObj(__ -> "a").collect(Collectors.joining(""));
+        Map<String, Object> result = new LinkedHashMap<>();
+        ExecutorService producers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().withNameFormat("filewriter-producer-%d").get());
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            LongAdder fileBytes = new LongAdder();
+            LongAdder fileWriteCalls = new LongAdder();
+            for (int i = 0; i < records; i++) {
+                futures.add(producers.submit(() -> {
+                    try (OutputStream out = new CountingOutputStream(Files.newOutputStream(Paths.get("demo.txt"), CREATE, TRUNCATE_EXISTING),
+                            fileBytes, fileWriteCalls);
+                         BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8.newEncoder()))) {
+                        writer.write(LocalTime.now().toString() + ":" + payload);
+                        writer.newLine();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            Map<String, Object> files = new LinkedHashMap<>();
+            files.put("MBps", fileBytes.sum() / 1e6 / ((System.nanoTime() - start) / 1e9));
+            files.put("records", records);
+            files.put("bytes", fileBytes.sum());
+            files.put("writeCalls", fileWriteCalls.sum());
+            files.put("fsyncCalls", 0);
+            //每条记录一次 open 一次 close
+            files.put("fileCalls", 2L * records);
+            files.put("syscallsPerRecord", (double) (fileWriteCalls.sum() + 2L * records) / records);
+            result.put("files", files);
+
+            ByteBuffer encoded = ByteBuffer.allocateDirect(recordSize + 1);
+            encoded.put((payload + "\n").getBytes(UTF_8)).flip();
+            ByteBuffer shared = encoded.asReadOnlyBuffer();
+            List<CompletableFuture<Void>> written = Collections.synchronizedList(new ArrayList<>());
+            start = System.nanoTime();
+            CoalescingFileWriter writer = new CoalescingFileWriter(Paths.get("demo-coalesced.txt"), 1024, 256,
+                    CoalescingFileWriter.FsyncPolicy.valueOf(fsync.toUpperCase().replace('-', '_')), 100, TimeUnit.MILLISECONDS,
+                    (long) preallocateMb << 20);
+            try {
+                futures.clear();
+                for (int i = 0; i < records; i++) {
+                    futures.add(producers.submit(() -> {
+                        written.add(writer.write(shared.duplicate()));
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                CompletableFuture.allOf(written.toArray(new CompletableFuture[0])).get();
+            } finally {
+                writer.close();
+            }
+            //关闭之后统计，包含关闭时的 force、truncate 和 close
+            Map<String, Object> coalescing = new LinkedHashMap<>();
+            coalescing.put("MBps", (long) records * (recordSize + 1) / 1e6 / ((System.nanoTime() - start) / 1e9));
+            coalescing.putAll(writer.stats());
+            result.put("coalescing", coalescing);
+        } finally {
+            producers.shutdown();
+        }
+        log.info("file writer benchmark:{}", result);
+        return result;
+    }
+
+    /**
+     * 所有 printStats 共用一个打印线程，不再每次调用都创建一个不会关闭的线程池
+     */
+    private static ScheduledExecutorService statsPrinter = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().withNameFormat("threadpool-stats-printer-%d").withDaemon(true).get());
+
+    private ScheduledFuture<?> printStats(ThreadPoolExecutor threadPool) {
+        return statsPrinter.scheduleAtFixedRate(() -> {
             log.info("=========================");
             log.info("Pool Size: {}", threadPool.getPoolSize());
             log.info("Active Threads: {}", threadPool.getActiveCount());
@@ -173,16 +430,33 @@ class ThreadPoolHelper {
         //线程池没有复用
         return (ThreadPoolExecutor) Executors.newCachedThreadPool();
     }
-    // 声明静态变量复用线程池
-    private static ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
-            10, 50,
-            2, TimeUnit.SECONDS,
-            new ArrayBlockingQueue<>(1000),
-            new ThreadFactoryBuilder().withNameFormat("demo-threadpool-%d").get());
-    public static ThreadPoolExecutor getRightThreadPool() {
-        return threadPoolExecutor;
-    }
 
 }
 
+/**
+ * 统计写入字节数和 write 调用次数的 OutputStream，Files.newOutputStream 返回的流每次 write 对应一次 write 系统调用
+ */
+class CountingOutputStream extends FilterOutputStream {
+    private final LongAdder bytes;
+    private final LongAdder writeCalls;
+
+    CountingOutputStream(OutputStream out, LongAdder bytes, LongAdder writeCalls) {
+        super(out);
+        this.bytes = bytes;
+        this.writeCalls = writeCalls;
+    }
 
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        bytes.increment();
+        writeCalls.increment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        bytes.add(len);
+        writeCalls.increment();
+    }
+}
@@ -0,0 +1,48 @@
+package com.sevenluo.java.error.code.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 15:30
+ * @description: 统计 ForkJoinPool 工作线程在整个生命周期内分配的堆内存字节数
+ * 工作线程启动时记录一次 ThreadMXBean 的已分配字节数，退出时再记录一次，差值累加到 allocatedBytes。
+ * 因此要在线程池 shutdown 并 awaitTermination 之后再读取结果。
+ */
+public class AllocationMeter {
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    public ForkJoinPool newForkJoinPool(int parallelism) {
+        return new ForkJoinPool(parallelism, pool -> new ForkJoinWorkerThread(pool) {
+            private long startBytes;
+
+            @Override
+            protected void onStart() {
+                super.onStart();
+                startBytes = currentThreadAllocatedBytes();
+            }
+
+            @Override
+            protected void onTermination(Throwable exception) {
+                allocatedBytes.add(currentThreadAllocatedBytes() - startBytes);
+                super.onTermination(exception);
+            }
+        }, null, false);
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return THREAD_MX_BEAN.isThreadAllocatedMemorySupported()
+                ? THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+}
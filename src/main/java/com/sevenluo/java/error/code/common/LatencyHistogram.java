@@ -0,0 +1,90 @@
+package com.sevenluo.java.error.code.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 21:00
+ * @description: 无锁的耗时直方图，按 2 的幂划分纳秒区间，记录一次只需要几个原子操作，适合在线程池钩子这类热点路径上使用
+ * 百分位返回所在区间的上界，误差不超过 2 倍，用来看量级和趋势足够了。
+ */
+public class LatencyHistogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.getAndIncrement(64 - Long.numberOfLeadingZeros(value) - (value == 0 ? 0 : 1));
+        count.increment();
+        totalNanos.add(value);
+        maxNanos.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) totalNanos.sum() / n;
+    }
+
+    /**
+     * @param percentile 0~100
+     * @return 百分位所在区间的上界（纳秒）
+     */
+    public long percentileNanos(double percentile) {
+        long[] snapshot = new long[64];
+        long total = 0;
+        for (int i = 0; i < 64; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < 64; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                //区间上界不会超过实际记录到的最大值
+                return Math.min(i >= 62 ? Long.MAX_VALUE : (2L << i) - 1, maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * 以毫秒为单位的统计摘要
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", getCount());
+        result.put("meanMs", getMeanNanos() / TimeUnit.MILLISECONDS.toNanos(1));
+        result.put("p50Ms", toMillis(percentileNanos(50)));
+        result.put("p99Ms", toMillis(percentileNanos(99)));
+        result.put("maxMs", toMillis(getMaxNanos()));
+        return result;
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
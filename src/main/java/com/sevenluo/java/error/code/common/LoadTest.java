@@ -0,0 +1,87 @@
+package com.sevenluo.java.error.code.common;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 09:40
+ * @description: 简单的 HTTP 压测工具，concurrency 个线程一共发出 requests 个 GET 请求，输出吞吐量和耗时分布
+ * 对比平台线程和虚拟线程：分别以 threads.mode=platform 和 threads.mode=virtual（mvn -Pjdk21）启动应用，再运行 main 方法：
+ * java LoadTest [concurrency] [requests] [url...]
+ */
+@Slf4j
+public class LoadTest {
+
+    private static final String[] DEFAULT_URLS = {
+            "http://127.0.0.1:8080/threadpool/threadpoolmixuse/wrong",
+            "http://127.0.0.1:8080/improperdatasourcepoolsize/test"
+    };
+
+    /**
+     * java LoadTest [concurrency] [requests] httpclient：对比 HttpClientNotReuseController 的几种用法，
+     * 注意 wrong1 每个请求都会泄露一个连接池和一个连接回收线程
+     */
+    private static final String[] HTTP_CLIENT_URLS = {
+            "http://127.0.0.1:8080/httpclientnotreuse/wrong1",
+            "http://127.0.0.1:8080/httpclientnotreuse/wrong2",
+            "http://127.0.0.1:8080/httpclientnotreuse/right",
+            "http://127.0.0.1:8080/httpclientnotreuse/async"
+    };
+
+    public static void main(String[] args) throws InterruptedException {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        String[] urls = args.length > 2 ? java.util.Arrays.copyOfRange(args, 2, args.length) : DEFAULT_URLS;
+        if (urls.length == 1 && "httpclient".equals(urls[0])) {
+            urls = HTTP_CLIENT_URLS;
+        }
+        for (String url : urls) {
+            log.info("{} concurrency:{} requests:{} result:{}", url, concurrency, requests, run(url, concurrency, requests));
+        }
+    }
+
+    public static Map<String, Object> run(String url, int concurrency, int requests) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(60)).build();
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(requests);
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long begin = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    if (client.send(request, HttpResponse.BodyHandlers.ofString()).statusCode() != 200) {
+                        errors.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                } finally {
+                    latency.record(System.nanoTime() - start);
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long took = System.nanoTime() - begin;
+        executor.shutdown();
+        Map<String, Object> result = new LinkedHashMap<>(latency.snapshot());
+        result.put("errors", errors.get());
+        result.put("requestsPerSecond", (double) requests * TimeUnit.SECONDS.toNanos(1) / took);
+        return result;
+    }
+}
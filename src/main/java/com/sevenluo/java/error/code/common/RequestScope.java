@@ -0,0 +1,229 @@
+package com.sevenluo.java.error.code.common;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 20:00
+ * @description: 请求级上下文，替代在每个 Controller 里手动 set/remove 的 ThreadLocal
+ * 实现思路：
+ * 1. 由 RequestScopeFilter 在请求开始时创建，请求结束时自动清理，Tomcat 工作线程复用时不会串数据；
+ * 2. 每个 Key 创建时分配一个固定下标，上下文内部是一个按下标访问的 Object 数组，不需要 ThreadLocalMap 的哈希查找；
+ * 3. 通过 wrap 包装的 Runnable/Callable/Executor 会把提交时的上下文带到执行线程，执行完恢复执行线程原来的上下文；
+ * 4. 由 threadFactory 创建的 ScopedThread 把上下文直接存在线程对象的字段里，静态 get/set 不再经过 ThreadLocalMap；
+ *    其他线程（Tomcat 工作线程、ForkJoin 工作线程）仍然走 ThreadLocal，热点循环里先用 current() 取一次上下文，再用 getValue/setValue 按下标读写；
+ * 5. 并行流的元素由 ForkJoin 框架自己拆分到工作线程，没法像线程池那样包装提交入口，
+ *    所以用 wrapFunction/wrapConsumer 包装 map、forEach 里的函数，每个元素执行时带上调用方的上下文，
+ *    直接提交到 ForkJoinPool 的任务用 forkJoinTask 包装。
+ */
+public final class RequestScope {
+
+    private static final AtomicInteger KEY_INDEX = new AtomicInteger();
+    private static final ThreadLocal<RequestScope> CURRENT = new ThreadLocal<>();
+
+    private Object[] slots = new Object[Math.max(4, KEY_INDEX.get())];
+
+    private RequestScope() {
+    }
+
+    public static <T> Key<T> newKey(String name) {
+        return new Key<>(name, KEY_INDEX.getAndIncrement());
+    }
+
+    /**
+     * 开启一个新的请求上下文并绑定到当前线程
+     */
+    public static RequestScope begin() {
+        RequestScope scope = new RequestScope();
+        attach(scope);
+        return scope;
+    }
+
+    /**
+     * 解除当前线程绑定的请求上下文
+     */
+    public static void end() {
+        attach(null);
+    }
+
+    public static boolean isActive() {
+        return current() != null;
+    }
+
+    /**
+     * 当前线程绑定的请求上下文，没有时返回 null；ScopedThread 直接读字段，其他线程查一次 ThreadLocal
+     */
+    public static RequestScope current() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof ScopedThread) {
+            return ((ScopedThread) thread).scope;
+        }
+        return CURRENT.get();
+    }
+
+    public static <T> T get(Key<T> key) {
+        RequestScope scope = current();
+        return scope == null ? null : scope.getValue(key);
+    }
+
+    public static <T> void set(Key<T> key, T value) {
+        RequestScope scope = current();
+        if (scope == null) {
+            throw new IllegalStateException("no active request scope, set " + key.name + " outside of a request");
+        }
+        scope.setValue(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getValue(Key<T> key) {
+        if (key.index >= slots.length) {
+            return null;
+        }
+        return (T) slots[key.index];
+    }
+
+    public <T> void setValue(Key<T> key, T value) {
+        if (key.index >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(key.index + 1, slots.length * 2));
+        }
+        slots[key.index] = value;
+    }
+
+    /**
+     * 创建 ScopedThread 的线程工厂，给需要频繁读写上下文的线程池使用
+     */
+    public static ThreadFactory threadFactory(String namePrefix) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return task -> new ScopedThread(task, namePrefix + threadIndex.getAndIncrement());
+    }
+
+    public static Runnable wrap(Runnable task) {
+        RequestScope captured = current();
+        if (captured == null) {
+            return task;
+        }
+        return () -> {
+            RequestScope previous = attach(captured);
+            try {
+                task.run();
+            } finally {
+                attach(previous);
+            }
+        };
+    }
+
+    public static <V> Callable<V> wrap(Callable<V> task) {
+        RequestScope captured = current();
+        if (captured == null) {
+            return task;
+        }
+        return () -> {
+            RequestScope previous = attach(captured);
+            try {
+                return task.call();
+            } finally {
+                attach(previous);
+            }
+        };
+    }
+
+    /**
+     * 包装线程池，提交的每个任务都带上提交线程的请求上下文
+     */
+    public static Executor wrap(Executor executor) {
+        return task -> executor.execute(wrap(task));
+    }
+
+    /**
+     * 包装并行流 map 里的函数，ForkJoin 工作线程处理每个元素时都带上调用方的上下文
+     */
+    public static <T, R> Function<T, R> wrapFunction(Function<T, R> function) {
+        RequestScope captured = current();
+        if (captured == null) {
+            return function;
+        }
+        return value -> {
+            RequestScope previous = attach(captured);
+            try {
+                return function.apply(value);
+            } finally {
+                attach(previous);
+            }
+        };
+    }
+
+    /**
+     * 包装并行流 forEach 里的函数
+     */
+    public static <T> Consumer<T> wrapConsumer(Consumer<T> consumer) {
+        RequestScope captured = current();
+        if (captured == null) {
+            return consumer;
+        }
+        return value -> {
+            RequestScope previous = attach(captured);
+            try {
+                consumer.accept(value);
+            } finally {
+                attach(previous);
+            }
+        };
+    }
+
+    /**
+     * 包装成 ForkJoinTask，提交到 ForkJoinPool 时带上提交线程的上下文
+     */
+    public static <V> ForkJoinTask<V> forkJoinTask(Callable<V> task) {
+        return ForkJoinTask.adapt(wrap(task));
+    }
+
+    private static RequestScope attach(RequestScope scope) {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof ScopedThread) {
+            ScopedThread scopedThread = (ScopedThread) thread;
+            RequestScope previous = scopedThread.scope;
+            scopedThread.scope = scope;
+            return previous;
+        }
+        RequestScope previous = CURRENT.get();
+        if (scope == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(scope);
+        }
+        return previous;
+    }
+
+    /**
+     * 上下文保存在线程字段里的线程，只会被自己读写，不需要 volatile
+     */
+    public static final class ScopedThread extends Thread {
+        private RequestScope scope;
+
+        private ScopedThread(Runnable task, String name) {
+            super(task, name);
+        }
+    }
+
+    public static final class Key<T> {
+        private final String name;
+        private final int index;
+
+        private Key(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.sevenluo.java.error.code.common;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/18 20:10
+ * @description: 为每个请求开启 RequestScope，请求结束时在 finally 中清理，业务代码不再需要自己 remove
+ */
+@Component
+public class RequestScopeFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RequestScope.begin();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            RequestScope.end();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.sevenluo.java.error.code.common;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/21 10:30
+ * @description: 压测用的倾斜 key 分布，小编号的 key 出现得更频繁
+ * 实现思路：
+ * 1. 用黄金分割数乘 i 取小数部分得到 [0,1) 内均匀分布、又不需要随机数的序列，同一个 i 总是得到同一个 key，对比的两种实现输入相同；
+ * 2. 均匀值取三次方后再乘 distinct，分布向 0 倾斜，少数热点 key 占大部分访问。
+ */
+public final class SkewedKeys {
+
+    private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+
+    private SkewedKeys() {
+    }
+
+    /**
+     * 第 i 次访问使用的 key，取值范围 [0, distinct)
+     */
+    public static long key(int i, int distinct) {
+        double uniform = (i * GOLDEN_RATIO_FRACTION) % 1.0;
+        return (long) (distinct * uniform * uniform * uniform);
+    }
+}
@@ -0,0 +1,24 @@
+package com.sevenluo.java.error.code.common;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 09:20
+ * @description: threads.mode=virtual 时让 Tomcat 使用虚拟线程处理请求，阻塞在 sleep、数据库、socket 上的请求不再占用 200 个工作线程
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "threads.mode", havingValue = VirtualThreads.MODE_VIRTUAL)
+public class VirtualThreadConfiguration {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        log.info("tomcat request threads: virtual");
+        return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newPerTaskExecutor("tomcat-virtual-"));
+    }
+}
@@ -0,0 +1,54 @@
+package com.sevenluo.java.error.code.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author: sevenluo
+ * @date: 2026/10/19 09:10
+ * @description: 虚拟线程工具类，通过反射调用 JDK 21 的 API，项目仍然可以用 JDK 11 编译运行，只有 threads.mode=virtual 时才需要 JDK 21
+ */
+public class VirtualThreads {
+
+    /**
+     * threads.mode 配置为 virtual 时使用虚拟线程
+     */
+    public static final String MODE_VIRTUAL = "virtual";
+
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 创建虚拟线程的 ThreadFactory，线程名为 prefix0、prefix1 ...
+     */
+    public static ThreadFactory threadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("virtual threads require JDK 21, current:" + System.getProperty("java.version"), e);
+        }
+    }
+
+    /**
+     * 每个任务一个虚拟线程的 ExecutorService
+     */
+    public static ExecutorService newPerTaskExecutor(String prefix) {
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, threadFactory(prefix));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("virtual threads require JDK 21, current:" + System.getProperty("java.version"), e);
+        }
+    }
+}
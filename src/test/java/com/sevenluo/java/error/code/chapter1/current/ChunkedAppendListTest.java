@@ -0,0 +1,73 @@
+package com.sevenluo.java.error.code.chapter1.current;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkedAppendListTest {
+
+    @Test
+    void rejectsAddsOnceFull() {
+        ChunkedAppendList<Integer> list = new ChunkedAppendList<>(5000);
+        for (int i = 0; i < 5000; i++) {
+            list.add(i);
+        }
+        assertThrows(IllegalStateException.class, () -> list.add(5000));
+        assertEquals(5000, list.size());
+        assertEquals(4999, list.get(4999));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(5000));
+    }
+
+    @Test
+    void concurrentAddsPastCapacityNeverExposeEmptySlots() throws InterruptedException {
+        int capacity = 10_000;
+        int threads = 8;
+        ChunkedAppendList<Integer> list = new ChunkedAppendList<>(capacity);
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger oversized = new AtomicInteger();
+        CountDownLatch writersDone = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < capacity; i++) {
+                    try {
+                        list.add(i);
+                        accepted.incrementAndGet();
+                    } catch (IllegalStateException ex) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                writersDone.countDown();
+            });
+        }
+        //读线程在写满前后不断读取最后一个元素，size 不会超过容量，读到的下标一定已经写入
+        executor.execute(() -> {
+            while (writersDone.getCount() > 0) {
+                int size = list.size();
+                if (size > capacity) {
+                    oversized.incrementAndGet();
+                } else if (size > 0) {
+                    list.get(size - 1);
+                }
+            }
+        });
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(0, oversized.get());
+        assertEquals(capacity, accepted.get());
+        assertEquals(threads * capacity - capacity, rejected.get());
+        assertEquals(capacity, list.size());
+        for (int i = 0; i < capacity; i++) {
+            list.get(i);
+        }
+    }
+}